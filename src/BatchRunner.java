@@ -0,0 +1,111 @@
+import java.io.BufferedReader;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * This class phases many short-format fragment matrices in one JVM. A manifest
+ * lists one job per line as the positional arguments of Tester followed by the
+ * file to write the haplotypes to and any optional flags:
+ *
+ * [matrix] [k] [alpha] [beta] [seedLength] [fragmentLength] [prettyPrint] [inclusiveSeeding] [output] [flags...]
+ *
+ * Blank lines and lines starting with '#' are ignored. The jobs run
+ * concurrently on a bounded thread pool, each with its own Solver, and the
+ * progress messages of every job are written next to its output with the
+ * extension ".log". The exit status is 1 if any job failed.
+ *
+ * @author Georgie Botev
+ */
+public class BatchRunner {
+
+	public static void main(String[] args) {
+		try {
+			// Extract command-line arguments
+			String manifest = args[0];
+			int numThreads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+			List<String[]> jobs = ReadManifest(manifest);
+			System.err.printf("Running %d jobs on %d threads\n", jobs.size(), numThreads);
+			long startTime = System.nanoTime();
+			ExecutorService executorService = Executors.newFixedThreadPool(numThreads);
+			List<Future<Long>> futures = new ArrayList<Future<Long>>();
+			for (String[] job : jobs) {
+				futures.add(executorService.submit(() -> RunJob(job)));
+			}
+			executorService.shutdown();
+			// Report every job in the order of the manifest
+			int numFailed = 0;
+			for (int i = 0; i < jobs.size(); i++) {
+				try {
+					System.err.printf("Job %d (%s): %d ms\n", i + 1, jobs.get(i)[0], futures.get(i).get());
+				} catch (ExecutionException e) {
+					numFailed++;
+					System.err.printf("Job %d (%s) failed: %s\n", i + 1, jobs.get(i)[0], e.getCause());
+				}
+			}
+			long duration = (System.nanoTime() - startTime) / 1000000;
+			System.err.printf("Finished %d of %d jobs in %d ms\n", jobs.size() - numFailed, jobs.size(), duration);
+			if (numFailed > 0) {
+				System.exit(1);
+			}
+		} catch (Exception e) {
+			System.err.println("Command-line arguments were not entered properly or an uncaught exception occured.");
+			e.printStackTrace(System.err);
+			System.exit(1);
+		}
+	}
+
+	private static List<String[]> ReadManifest(String fileName) throws IOException {
+		List<String[]> jobs = new ArrayList<String[]>();
+		try (BufferedReader br = new BufferedReader(new FileReader(fileName))) {
+			for (String line = br.readLine(); line != null; line = br.readLine()) {
+				line = line.trim();
+				if (line.isEmpty() || line.startsWith("#")) {
+					continue;
+				}
+				String[] job = line.split("\\s+");
+				if (job.length < 9) {
+					throw new IllegalArgumentException(String.format("Job \"%s\" needs at least 9 fields.", line));
+				}
+				jobs.add(job);
+			}
+		} catch (FileNotFoundException e) {
+			throw new FileNotFoundException(String.format("Unable to open file %s.", fileName));
+		}
+		return jobs;
+	}
+
+	/**
+	 * This method phases the matrix of a single job.
+	 *
+	 * @param job The fields of the job in the manifest.
+	 * @return The time taken in milliseconds.
+	 * @throws IOException If the matrix cannot be read or the output cannot be
+	 *             written.
+	 */
+	private static long RunJob(String[] job) throws IOException {
+		long startTime = System.nanoTime();
+		FragmentStore fragments = Tester.ReadFragments(job[0]);
+		Solver solver = new Solver(fragments, Integer.parseInt(job[1]), Double.parseDouble(job[2]),
+				Integer.parseInt(job[3]), Integer.parseInt(job[4]), Integer.parseInt(job[5]),
+				Boolean.parseBoolean(job[6]), Boolean.parseBoolean(job[7]));
+		Tester.ApplyOptions(solver, Arrays.copyOfRange(job, 9, job.length));
+		try (PrintStream out = new PrintStream(new FileOutputStream(job[8]));
+				PrintStream log = new PrintStream(new FileOutputStream(job[8] + ".log"))) {
+			solver.setOutput(out);
+			solver.setLog(log);
+			solver.phaseSerial();
+		}
+		return (System.nanoTime() - startTime) / 1000000;
+	}
+
+}
@@ -0,0 +1,364 @@
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This class microbenchmarks the hot paths of phasing on synthetic fragment
+ * matrices, for every combination of the given fragment lengths, coverages,
+ * ploidies and seed lengths. Every benchmark runs a number of warmup
+ * iterations, whose results are discarded, followed by measured iterations,
+ * and reports the mean time per operation with its standard deviation, the
+ * bytes allocated per operation by the benchmarking thread and the garbage
+ * collections during the measured iterations. Only the operation itself is
+ * timed; setting up its input is not.
+ *
+ * Usage: Benchmarks [--fragment-length=10,20] [--coverage=10] [--k=2,3]
+ * [--seed-length=3] [--width=2000] [--warmup=5] [--iterations=10]
+ * [--filter=substring]
+ *
+ * @author Georgie Botev
+ */
+public class Benchmarks {
+
+	// Fixed seed so that every run benchmarks the same matrices
+	private static final long SEED = 42;
+	private static final double ERROR_RATE = 0.01;
+	private static final double GAP_RATE = 0.05;
+	private static final double ALPHA = 2.0;
+	private static final int BETA = 1;
+	// Number of operations timed at once for operations too short to time alone
+	private static final int BATCH = 1000;
+	// Keeps the results of benchmarks alive so that they are not optimized away
+	private static volatile int sink;
+
+	private int width = 2000;
+	private int numWarmup = 5;
+	private int numIterations = 10;
+	private String filter = "";
+	private PrintStream quiet = new PrintStream(new OutputStream() {
+		@Override
+		public void write(int b) {
+		}
+	});
+
+	public static void main(String[] args) {
+		try {
+			Benchmarks benchmarks = new Benchmarks();
+			int[] fragmentLengths = { 10 };
+			int[] coverages = { 10 };
+			int[] ks = { 3 };
+			int[] seedLengths = { 3 };
+			for (String option : args) {
+				String[] parts = option.split("=", 2);
+				switch (parts[0]) {
+				case "--fragment-length":
+					fragmentLengths = parseInts(parts[1]);
+					break;
+				case "--coverage":
+					coverages = parseInts(parts[1]);
+					break;
+				case "--k":
+					ks = parseInts(parts[1]);
+					break;
+				case "--seed-length":
+					seedLengths = parseInts(parts[1]);
+					break;
+				case "--width":
+					benchmarks.width = Integer.parseInt(parts[1]);
+					break;
+				case "--warmup":
+					benchmarks.numWarmup = Integer.parseInt(parts[1]);
+					break;
+				case "--iterations":
+					benchmarks.numIterations = Integer.parseInt(parts[1]);
+					break;
+				case "--filter":
+					benchmarks.filter = parts[1];
+					break;
+				default:
+					throw new IllegalArgumentException(String.format("Unknown option %s.", option));
+				}
+			}
+			System.out.printf("%-32s %6s %8s %3s %10s %14s %10s %12s %9s\n", "Benchmark", "length", "coverage",
+					"k", "seedLength", "ns/op", "+-", "B/op", "GCs (ms)");
+			for (int fragmentLength : fragmentLengths) {
+				for (int coverage : coverages) {
+					for (int k : ks) {
+						for (int seedLength : seedLengths) {
+							benchmarks.run(fragmentLength, coverage, k, seedLength);
+						}
+					}
+				}
+			}
+		} catch (Exception e) {
+			System.err.println("Command-line arguments were not entered properly or an uncaught exception occured.");
+			e.printStackTrace(System.err);
+		}
+	}
+
+	private static int[] parseInts(String values) {
+		return Arrays.stream(values.split(",")).mapToInt(Integer::parseInt).toArray();
+	}
+
+	/**
+	 * This class accumulates the time and allocations of the timed sections of
+	 * one iteration.
+	 */
+	private static class Measurement {
+
+		private static final com.sun.management.ThreadMXBean THREADS = threads();
+		private long numOps;
+		private long nanos;
+		private long bytes;
+		private long startNanos;
+		private long startBytes;
+
+		private static com.sun.management.ThreadMXBean threads() {
+			java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+			if (threads instanceof com.sun.management.ThreadMXBean) {
+				com.sun.management.ThreadMXBean result = (com.sun.management.ThreadMXBean) threads;
+				if (result.isThreadAllocatedMemorySupported()) {
+					result.setThreadAllocatedMemoryEnabled(true);
+					return result;
+				}
+			}
+			System.err.println("Allocation measurement is not supported by this JVM.");
+			return null;
+		}
+
+		private static long allocatedBytes() {
+			return THREADS == null ? 0 : THREADS.getThreadAllocatedBytes(Thread.currentThread().getId());
+		}
+
+		void begin() {
+			this.startBytes = allocatedBytes();
+			this.startNanos = System.nanoTime();
+		}
+
+		void end(long numOps) {
+			this.nanos += System.nanoTime() - this.startNanos;
+			this.bytes += allocatedBytes() - this.startBytes;
+			this.numOps += numOps;
+		}
+	}
+
+	/**
+	 * This interface is one iteration of a benchmark, which times its
+	 * operations with the given measurement.
+	 */
+	private interface Iteration {
+		void run(Measurement measurement);
+	}
+
+	private void benchmark(String name, String params, Iteration iteration) {
+		if (!name.contains(this.filter)) {
+			return;
+		}
+		for (int i = 0; i < this.numWarmup; i++) {
+			iteration.run(new Measurement());
+		}
+		long gcCount = 0;
+		long gcTime = 0;
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+			gcCount -= gc.getCollectionCount();
+			gcTime -= gc.getCollectionTime();
+		}
+		double[] nanosPerOp = new double[this.numIterations];
+		long numOps = 0;
+		long bytes = 0;
+		for (int i = 0; i < this.numIterations; i++) {
+			Measurement measurement = new Measurement();
+			iteration.run(measurement);
+			nanosPerOp[i] = (double) measurement.nanos / Math.max(1, measurement.numOps);
+			numOps += measurement.numOps;
+			bytes += measurement.bytes;
+		}
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+			gcCount += gc.getCollectionCount();
+			gcTime += gc.getCollectionTime();
+		}
+		double mean = Arrays.stream(nanosPerOp).average().orElse(0);
+		double variance = Arrays.stream(nanosPerOp).map(x -> (x - mean) * (x - mean)).sum()
+				/ Math.max(1, this.numIterations - 1);
+		System.out.printf("%-32s %s %14.1f %10.1f %12.1f %4d (%3d)\n", name, params, mean, Math.sqrt(variance),
+				(double) bytes / Math.max(1, numOps), gcCount, gcTime);
+	}
+
+	/**
+	 * This method generates a matrix of k random haplotypes over width SNP
+	 * sites, covered coverage times by fragments of the given length with
+	 * errors and gaps, and runs every benchmark on it.
+	 */
+	private void run(int fragmentLength, int coverage, int k, int seedLength) {
+		String params = String.format("%6d %8d %3d %10d", fragmentLength, coverage, k, seedLength);
+		MatrixGenerator generator = new MatrixGenerator(k, this.width, coverage * this.width / fragmentLength, SEED);
+		generator.setErrorRate(ERROR_RATE);
+		generator.setGapRate(GAP_RATE);
+		generator.setFragmentLength(fragmentLength, 0, fragmentLength, fragmentLength);
+		FragmentStore store = generator.store();
+		List<Fragment> fragments = new ArrayList<Fragment>();
+		for (int f = 0; f < store.size(); f++) {
+			fragments.add(store.fragment(f));
+		}
+		this.benchmarkFragments(params, store, fragments);
+		this.benchmarkFrequencyArrays(params, store);
+		this.benchmarkSolver(params, store, k, seedLength, fragmentLength);
+	}
+
+	private void benchmarkFragments(String params, FragmentStore store, List<Fragment> fragments) {
+		int size = fragments.size();
+		// Fragments close in ID overlap, since IDs follow starting indices
+		this.benchmark("Fragment.similarTo", params, m -> {
+			int sum = 0;
+			for (int i = 0; i + BATCH < size; i += BATCH) {
+				m.begin();
+				for (int j = i; j < i + BATCH; j++) {
+					sum += fragments.get(j).similarTo(fragments.get(j + 1));
+				}
+				m.end(BATCH);
+			}
+			consume(sum);
+		});
+		this.benchmark("FragmentStore.similarTo", params, m -> {
+			int sum = 0;
+			for (int i = 0; i + BATCH < size; i += BATCH) {
+				m.begin();
+				for (int j = i; j < i + BATCH; j++) {
+					sum += store.similarTo(j, fragments.get(j + 1));
+				}
+				m.end(BATCH);
+			}
+			consume(sum);
+		});
+	}
+
+	private void benchmarkFrequencyArrays(String params, FragmentStore store) {
+		int size = store.size();
+		this.benchmark("FrequencyArray.addFragment", params, m -> {
+			FrequencyArray fa = new FrequencyArray(store, 0);
+			m.begin();
+			for (int f = 0; f < size; f++) {
+				fa.addFragment(f);
+			}
+			m.end(size);
+			consume(fa.numSupportingFrags());
+		});
+		this.benchmark("FrequencyArray.merge", params, m -> {
+			// Merge halves of the matrix taken from every other fragment
+			for (int n = 0; n < 10; n++) {
+				FrequencyArray fa1 = new FrequencyArray(store, 0);
+				FrequencyArray fa2 = new FrequencyArray(store, 1);
+				for (int f = 0; f < size; f++) {
+					(f % 2 == n % 2 ? fa1 : fa2).addFragment(f);
+				}
+				m.begin();
+				FrequencyArray merge = FrequencyArray.merge(fa1, fa2);
+				m.end(1);
+				consume(merge.numSupportingFrags());
+			}
+		});
+		FrequencyArray full = new FrequencyArray(store, 0);
+		for (int f = 0; f < size; f++) {
+			full.addFragment(f);
+		}
+		// Changing the frequencies recomputes the consensus on the next call
+		this.benchmark("FrequencyArray.consensus", params, m -> {
+			for (int n = 0; n < 100; n++) {
+				int f = n * (size / 100);
+				full.removeFragment(f);
+				full.addFragment(f);
+				m.begin();
+				Fragment consensus = full.consensus();
+				m.end(1);
+				consume(consensus.length());
+			}
+		});
+		// The SADF is kept up to date by every change of the frequencies, so
+		// an operation is a change together with reading the SADF
+		this.benchmark("FrequencyArray.sadf", params, m -> {
+			int sum = 0;
+			m.begin();
+			for (int n = 0; n < BATCH; n++) {
+				int f = n % size;
+				full.removeFragment(f);
+				full.addFragment(f);
+				sum += full.sadf();
+			}
+			m.end(BATCH);
+			consume(sum);
+		});
+	}
+
+	private void benchmarkSolver(String params, FragmentStore store, int k, int seedLength, int fragmentLength) {
+		FragmentIndex index = new FragmentIndex(store);
+		int numSNP = store.numSNP();
+		this.benchmark("SeedCounter.count", params, m -> {
+			SeedCounter seedCounter = new SeedCounter(store, index, k);
+			int[] indices = new int[seedLength];
+			int sum = 0;
+			m.begin();
+			// Seed at consecutive SNP sites
+			for (int i = 0; i + seedLength <= numSNP; i++) {
+				for (int j = 0; j < seedLength; j++) {
+					indices[j] = i + j;
+				}
+				sum += seedCounter.count(indices);
+			}
+			m.end(Math.max(0, numSNP - seedLength + 1));
+			consume(sum);
+		});
+		// Seed once to get converged seed groups to twist
+		Solver seeded = this.solver(store, k, seedLength, fragmentLength);
+		seeded.seedAll();
+		Map<Integer, List<FrequencyArray>> groups = new HashMap<Integer, List<FrequencyArray>>();
+		for (FrequencyArray fa : seeded.getSeedHaplotypes()) {
+			groups.computeIfAbsent(fa.getTag(), tag -> new ArrayList<FrequencyArray>()).add(fa);
+		}
+		this.benchmark("Solver.twist", params, m -> {
+			TwistKernel twistKernel = new TwistKernel(store, k, BETA);
+			int sum = 0;
+			m.begin();
+			for (List<FrequencyArray> group : groups.values()) {
+				sum += seeded.twist(group.toArray(new FrequencyArray[k]), twistKernel);
+			}
+			m.end(groups.size());
+			consume(sum);
+		});
+		this.benchmark("Solver.initializeBestMerges", params, m -> {
+			Solver solver = this.solver(store, k, seedLength, fragmentLength);
+			solver.seedAll();
+			m.begin();
+			solver.initializeBestMerges();
+			m.end(1);
+		});
+		this.benchmark("Solver.mergeNext", params, m -> {
+			Solver solver = this.solver(store, k, seedLength, fragmentLength);
+			solver.seedAll();
+			solver.initializeBestMerges();
+			int numHaplotypes = solver.getSeedHaplotypes().size();
+			m.begin();
+			while (solver.mergeNext()) {
+			}
+			// Every merge replaces two haplotypes by one, while stale and
+			// unmergeable pairs are only discarded
+			m.end(numHaplotypes - solver.getSeedHaplotypes().size());
+		});
+	}
+
+	private Solver solver(FragmentStore store, int k, int seedLength, int fragmentLength) {
+		Solver solver = new Solver(store, k, ALPHA, BETA, seedLength, fragmentLength, false, false);
+		solver.setLog(this.quiet);
+		return solver;
+	}
+
+	private static void consume(int value) {
+		sink += value;
+	}
+
+}
@@ -0,0 +1,295 @@
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * This class reads and writes the compact binary encoding of a fragment
+ * matrix. The file consists of a fixed-size header, an index over blocks of
+ * start-sorted records, and the records themselves. Each index entry holds the
+ * starting index of the first fragment in the block and the file offset of the
+ * block. Each record stores the starting index of a fragment as a delta from
+ * the previous record in its block, its length and its (already merged)
+ * frequency as variable-length integers, followed by its alleles packed into
+ * two bits each.
+ *
+ * A matrix is read by memory-mapping the file, so fragments are decoded
+ * straight from the mapped buffer without any text parsing.
+ *
+ * @author Georgie Botev
+ */
+public class BinaryFragmentMatrix {
+
+	// "HAPB" in ASCII
+	public static final int MAGIC = 0x48415042;
+	public static final int VERSION = 1;
+	// Number of records per index entry
+	public static final int BLOCK_SIZE = 64;
+	// Magic, version, number of fragments, number of SNP sites, number of blocks
+	private static final int HEADER_SIZE = 20;
+	// Starting index of the first record and offset of the block
+	private static final int INDEX_ENTRY_SIZE = 12;
+	// Two-bit allele codes
+	private static final int CODE_0 = 0;
+	private static final int CODE_1 = 1;
+	private static final int CODE_GAP = 2;
+
+	private final MappedByteBuffer buffer;
+	private final int numFragments;
+	private final int numSNP;
+	private final int numBlocks;
+
+	private BinaryFragmentMatrix(MappedByteBuffer buffer) throws IOException {
+		this.buffer = buffer;
+		if (buffer.getInt(0) != MAGIC) {
+			throw new IOException("Not a binary fragment matrix.");
+		}
+		if (buffer.getInt(4) != VERSION) {
+			throw new IOException(String.format("Unsupported binary fragment matrix version %d.", buffer.getInt(4)));
+		}
+		this.numFragments = buffer.getInt(8);
+		this.numSNP = buffer.getInt(12);
+		this.numBlocks = buffer.getInt(16);
+	}
+
+	/**
+	 * This method memory-maps the given binary fragment matrix.
+	 *
+	 * @param fileName The path of the binary fragment matrix.
+	 * @return The mapped matrix.
+	 * @throws IOException If the file could not be read or is not a binary
+	 *             fragment matrix.
+	 */
+	public static BinaryFragmentMatrix open(String fileName) throws IOException {
+		try (RandomAccessFile file = new RandomAccessFile(fileName, "r");
+				FileChannel channel = file.getChannel()) {
+			long size = channel.size();
+			if (size < HEADER_SIZE) {
+				throw new IOException("Not a binary fragment matrix.");
+			}
+			if (size > Integer.MAX_VALUE) {
+				throw new IOException(String.format("Binary fragment matrix %s exceeds the 2 GB mapping limit.", fileName));
+			}
+			// The mapping stays valid after the channel is closed
+			return new BinaryFragmentMatrix(channel.map(FileChannel.MapMode.READ_ONLY, 0, size));
+		}
+	}
+
+	/**
+	 * This method checks whether the given file starts with the binary
+	 * fragment matrix header.
+	 *
+	 * @param fileName The path of the file to check.
+	 * @return A boolean indicating whether the file is a binary fragment matrix.
+	 * @throws IOException If the file could not be read.
+	 */
+	public static boolean isBinary(String fileName) throws IOException {
+		try (DataInputStream in = new DataInputStream(new FileInputStream(fileName))) {
+			return in.available() >= 4 && in.readInt() == MAGIC;
+		}
+	}
+
+	/**
+	 * This method writes the given fragments in the binary encoding, sorted by
+	 * starting index.
+	 *
+	 * @param fragments The distinct fragments to write.
+	 * @param fileName The path of the binary fragment matrix to create.
+	 * @throws IOException If the file could not be written.
+	 */
+	public static void write(Collection<Fragment> fragments, String fileName) throws IOException {
+		List<Fragment> sorted = new ArrayList<Fragment>(fragments);
+		Collections.sort(sorted, new Comparator<Fragment>() {
+			public int compare(Fragment f1, Fragment f2) {
+				int result = Fragment.compareFragments(f1, f2);
+				// Break ties by pattern so that the output is reproducible
+				return result != 0 ? result : f1.toString().compareTo(f2.toString());
+			}
+		});
+		int numSNP = 0;
+		for (Fragment f : sorted) {
+			numSNP = Math.max(numSNP, f.endIndex() + 1);
+		}
+		int numBlocks = (sorted.size() + BLOCK_SIZE - 1) / BLOCK_SIZE;
+		// Encode the records first so that the block offsets are known
+		ByteArrayOutputStream records = new ByteArrayOutputStream(sorted.size() * 8);
+		int[] blockOffsets = new int[numBlocks];
+		int prevStart = 0;
+		for (int i = 0; i < sorted.size(); i++) {
+			Fragment f = sorted.get(i);
+			if (i % BLOCK_SIZE == 0) {
+				blockOffsets[i / BLOCK_SIZE] = records.size();
+				prevStart = f.startIndex();
+			}
+			writeVarInt(records, f.startIndex() - prevStart);
+			writeVarInt(records, f.length());
+			writeVarInt(records, f.frequency());
+			prevStart = f.startIndex();
+			String pattern = f.toString();
+			int packed = 0;
+			for (int j = 0; j < pattern.length(); j++) {
+				char c = pattern.charAt(j);
+				int code = c == '0' ? CODE_0 : (c == '1' ? CODE_1 : CODE_GAP);
+				packed |= code << ((j & 3) << 1);
+				if ((j & 3) == 3) {
+					records.write(packed);
+					packed = 0;
+				}
+			}
+			if ((pattern.length() & 3) != 0) {
+				records.write(packed);
+			}
+		}
+		try (DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(fileName), 1 << 16))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(sorted.size());
+			out.writeInt(numSNP);
+			out.writeInt(numBlocks);
+			// Write the block index
+			long dataOffset = HEADER_SIZE + (long) INDEX_ENTRY_SIZE * numBlocks;
+			for (int i = 0; i < numBlocks; i++) {
+				out.writeInt(sorted.get(i * BLOCK_SIZE).startIndex());
+				out.writeLong(dataOffset + blockOffsets[i]);
+			}
+			// Write the records
+			records.writeTo(out);
+		}
+	}
+
+	private static void writeVarInt(ByteArrayOutputStream out, int value) {
+		while ((value & ~0x7F) != 0) {
+			out.write((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out.write(value);
+	}
+
+	/**
+	 * This method gets the number of distinct fragments in the matrix.
+	 *
+	 * @return The number of fragments.
+	 */
+	public int size() {
+		return this.numFragments;
+	}
+
+	/**
+	 * This method gets the number of SNP sites spanned by the matrix.
+	 *
+	 * @return The number of SNP sites.
+	 */
+	public int numSNP() {
+		return this.numSNP;
+	}
+
+	/**
+	 * This method decodes every fragment in the matrix straight into a
+	 * FragmentStore without creating any Fragment objects. Since the records
+	 * are already start-sorted, IDs match those of FragmentStore.of.
+	 *
+	 * @return The store holding every fragment of the matrix.
+	 */
+	public FragmentStore store() {
+		FragmentStore.Builder builder = new FragmentStore.Builder(this.numFragments);
+		long[] coverageWords = new long[1];
+		long[] alleleWords = new long[1];
+		for (int block = 0; block < this.numBlocks; block++) {
+			Cursor cursor = new Cursor(block);
+			int blockEnd = Math.min(this.numFragments, (block + 1) * BLOCK_SIZE);
+			for (int i = block * BLOCK_SIZE; i < blockEnd; i++) {
+				int startIndex = cursor.prevStart + cursor.readVarInt();
+				int length = cursor.readVarInt();
+				int frequency = cursor.readVarInt();
+				int words = length == 0 ? 0 : ((startIndex + length - 1) >>> 6) - (startIndex >>> 6) + 1;
+				if (words > coverageWords.length) {
+					coverageWords = new long[words];
+					alleleWords = new long[words];
+				}
+				Arrays.fill(coverageWords, 0, words, 0L);
+				Arrays.fill(alleleWords, 0, words, 0L);
+				int firstWord = startIndex >>> 6;
+				for (int j = 0; j < length; j++) {
+					int code = (this.buffer.get(cursor.position + (j >>> 2)) >>> ((j & 3) << 1)) & 3;
+					if (code != CODE_GAP) {
+						int snp = startIndex + j;
+						coverageWords[(snp >>> 6) - firstWord] |= 1L << snp;
+						if (code == CODE_1) {
+							alleleWords[(snp >>> 6) - firstWord] |= 1L << snp;
+						}
+					}
+				}
+				cursor.position += (length + 3) / 4;
+				cursor.prevStart = startIndex;
+				builder.add(startIndex, length, frequency, coverageWords, alleleWords);
+			}
+		}
+		return builder.build();
+	}
+
+	/**
+	 * This class tracks the position and previous starting index while
+	 * decoding consecutive records of a block from the mapped buffer.
+	 */
+	private class Cursor {
+		private int position;
+		private int prevStart;
+
+		Cursor(int block) {
+			int entry = HEADER_SIZE + INDEX_ENTRY_SIZE * block;
+			this.prevStart = buffer.getInt(entry);
+			this.position = (int) buffer.getLong(entry + 4);
+		}
+
+		private int readVarInt() {
+			int value = 0;
+			for (int shift = 0;; shift += 7) {
+				byte b = buffer.get(this.position++);
+				value |= (b & 0x7F) << shift;
+				if (b >= 0) {
+					return value;
+				}
+			}
+		}
+	}
+
+	/**
+	 * This method converts a fragment matrix in short format into the binary
+	 * encoding.
+	 *
+	 * @param args The path of the text matrix followed by the path of the
+	 *            binary matrix to create.
+	 */
+	public static void main(String[] args) {
+		if (args.length != 2) {
+			System.err.println("Usage: BinaryFragmentMatrix [input-matrix.txt] [output-matrix.bin]");
+			System.exit(1);
+		}
+		try {
+			long startTime = System.nanoTime();
+			Set<Fragment> fragments = FragmentLoader.load(args[0]);
+			write(fragments, args[1]);
+			long duration = (System.nanoTime() - startTime) / 1000000;
+			System.err.printf("Wrote %d fragments to %s in %d ms.\n", fragments.size(), args[1], duration);
+		} catch (IOException e) {
+			System.err.println(String.format("Unable to convert %s to %s.", args[0], args[1]));
+			e.printStackTrace(System.err);
+			System.exit(1);
+		}
+	}
+
+}
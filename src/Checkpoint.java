@@ -0,0 +1,237 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This class holds a snapshot of the state of a Solver, taken either once
+ * seeding is done or between merges, and stores it in a compact binary file.
+ * Every haplotype is stored as its ID, its tags and its sorted supporting
+ * fragment IDs, and every pair of the merge queue as the IDs of its
+ * haplotypes, its score and its sequence number. Fragment IDs and tags are
+ * delta-encoded as variable-length integers. The file is written next to its
+ * destination and then moved over it, so that a job killed while writing
+ * leaves the previous snapshot intact.
+ *
+ * @author Georgie Botev
+ */
+public class Checkpoint {
+
+	// Seeding is done and the seeds have not been paired yet
+	public static final int SEEDED = 1;
+	// The seeds have been paired and merging is under way
+	public static final int MERGING = 2;
+	// "HAPC" followed by the version of the format
+	private static final int MAGIC = 0x48415043;
+	private static final int VERSION = 1;
+
+	private int stage;
+	private int tag;
+	private long seqNum;
+	private int nextId;
+	private List<FrequencyArray> haplotypes;
+	private Collection<FIFOFrequencyArrayPair> pairs;
+
+	public Checkpoint(int stage, int tag, long seqNum, int nextId, List<FrequencyArray> haplotypes,
+			Collection<FIFOFrequencyArrayPair> pairs) {
+		this.stage = stage;
+		this.tag = tag;
+		this.seqNum = seqNum;
+		this.nextId = nextId;
+		this.haplotypes = haplotypes;
+		this.pairs = pairs;
+	}
+
+	public int stage() {
+		return this.stage;
+	}
+
+	public int tag() {
+		return this.tag;
+	}
+
+	public long seqNum() {
+		return this.seqNum;
+	}
+
+	public int nextId() {
+		return this.nextId;
+	}
+
+	public List<FrequencyArray> haplotypes() {
+		return this.haplotypes;
+	}
+
+	public Collection<FIFOFrequencyArrayPair> pairs() {
+		return this.pairs;
+	}
+
+	/**
+	 * This method writes the snapshot to the given file. Pairs with a
+	 * haplotype that was merged away are left out, since they would be
+	 * discarded anyway.
+	 *
+	 * @param fileName The path of the checkpoint.
+	 * @param store The fragments being phased.
+	 * @param k The ploidy being phased.
+	 * @throws IOException If the checkpoint could not be written.
+	 */
+	public void write(String fileName, FragmentStore store, int k) throws IOException {
+		Path target = Paths.get(fileName);
+		Path temp = Paths.get(fileName + ".tmp");
+		try (DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(temp.toFile())))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			// Identify the input, so that a checkpoint is not resumed on another
+			out.writeInt(store.size());
+			out.writeInt(store.numSNP());
+			out.writeInt(k);
+			out.writeByte(this.stage);
+			out.writeInt(this.tag);
+			out.writeLong(this.seqNum);
+			out.writeInt(this.nextId);
+			out.writeInt(this.haplotypes.size());
+			for (FrequencyArray fa : this.haplotypes) {
+				out.writeInt(fa.getId());
+				writeSortedInts(out, fa.getTags().stream().mapToInt(Integer::intValue).toArray());
+				writeSortedInts(out, fa.getFrags().toArray());
+			}
+			int numPairs = 0;
+			for (FIFOFrequencyArrayPair pair : this.pairs) {
+				numPairs += pair.getFrequencyArrayPair().isStale() ? 0 : 1;
+			}
+			out.writeInt(numPairs);
+			for (FIFOFrequencyArrayPair pair : this.pairs) {
+				FrequencyArrayPair fap = pair.getFrequencyArrayPair();
+				if (!fap.isStale()) {
+					out.writeInt(fap.getFirst().getId());
+					out.writeInt(fap.getSecond().getId());
+					out.writeDouble(fap.getScore());
+					out.writeLong(pair.getSeqNum());
+				}
+			}
+		}
+		Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * This method reads a snapshot written for the given fragments and
+	 * rebuilds its haplotypes and pairs.
+	 *
+	 * @param fileName The path of the checkpoint.
+	 * @param store The fragments being phased.
+	 * @param k The ploidy being phased.
+	 * @return The snapshot.
+	 * @throws IOException If the checkpoint could not be read or was written
+	 *             for other fragments.
+	 */
+	public static Checkpoint read(String fileName, FragmentStore store, int k) throws IOException {
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(fileName)))) {
+			if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+				throw new IOException(String.format("%s is not a checkpoint.", fileName));
+			}
+			if (in.readInt() != store.size() || in.readInt() != store.numSNP() || in.readInt() != k) {
+				throw new IOException(String.format("%s was written for another matrix or ploidy.", fileName));
+			}
+			int stage = in.readByte();
+			int tag = in.readInt();
+			long seqNum = in.readLong();
+			int nextId = in.readInt();
+			int numHaplotypes = in.readInt();
+			List<FrequencyArray> haplotypes = new ArrayList<FrequencyArray>(numHaplotypes);
+			Map<Integer, FrequencyArray> haplotypesById = new HashMap<Integer, FrequencyArray>();
+			for (int i = 0; i < numHaplotypes; i++) {
+				FrequencyArray fa = new FrequencyArray(store);
+				fa.setId(in.readInt());
+				List<Integer> tags = new ArrayList<Integer>();
+				for (int t : readSortedInts(in)) {
+					tags.add(t);
+				}
+				fa.addTags(tags);
+				for (int f : readSortedInts(in)) {
+					fa.addFragment(f);
+				}
+				haplotypes.add(fa);
+				haplotypesById.put(fa.getId(), fa);
+			}
+			int numPairs = in.readInt();
+			List<FIFOFrequencyArrayPair> pairs = new ArrayList<FIFOFrequencyArrayPair>(numPairs);
+			for (int i = 0; i < numPairs; i++) {
+				FrequencyArray fa1 = haplotypesById.get(in.readInt());
+				FrequencyArray fa2 = haplotypesById.get(in.readInt());
+				double score = in.readDouble();
+				long pairSeqNum = in.readLong();
+				if (fa1 == null || fa2 == null) {
+					throw new IOException(String.format("%s refers to a missing haplotype.", fileName));
+				}
+				pairs.add(new FIFOFrequencyArrayPair(new FrequencyArrayPair(fa1, fa2, score), pairSeqNum));
+			}
+			return new Checkpoint(stage, tag, seqNum, nextId, haplotypes, pairs);
+		} catch (FileNotFoundException e) {
+			throw new FileNotFoundException(String.format("Unable to open file %s.", fileName));
+		} catch (EOFException e) {
+			throw new IOException(String.format("%s is truncated.", fileName), e);
+		}
+	}
+
+	/**
+	 * This method writes the given non-negative integers sorted, as their
+	 * count followed by the gaps between them as variable-length integers.
+	 */
+	private static void writeSortedInts(DataOutputStream out, int[] values) throws IOException {
+		Arrays.sort(values);
+		writeVarInt(out, values.length);
+		int previous = 0;
+		for (int value : values) {
+			writeVarInt(out, value - previous);
+			previous = value;
+		}
+	}
+
+	private static int[] readSortedInts(DataInputStream in) throws IOException {
+		int[] values = new int[readVarInt(in)];
+		int previous = 0;
+		for (int i = 0; i < values.length; i++) {
+			previous += readVarInt(in);
+			values[i] = previous;
+		}
+		return values;
+	}
+
+	private static void writeVarInt(DataOutputStream out, int value) throws IOException {
+		// Seven bits per byte, with the high bit set on all but the last
+		while ((value & ~0x7F) != 0) {
+			out.writeByte((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out.writeByte(value);
+	}
+
+	private static int readVarInt(DataInputStream in) throws IOException {
+		int value = 0;
+		for (int shift = 0;; shift += 7) {
+			int b = in.readUnsignedByte();
+			value |= (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+	}
+
+}
@@ -0,0 +1,127 @@
+import java.util.Arrays;
+
+/**
+ * This class bounds the number of distinct seed patterns that a combination
+ * of seed indices can produce by the number of fragments covering every pair
+ * of its indices. Since a seed group needs more distinct pattern frequencies
+ * than the variability threshold, and so at least as many distinct patterns,
+ * any combination containing a pair of sites covered by too few fragments can
+ * be skipped without changing the seeds. Only whether a pair reaches the
+ * required coverage matters, so pair coverages are kept as counts that stop
+ * at the required coverage, one byte each, in pages of SNP sites allocated
+ * only for sites that fragments cover.
+ *
+ * @author Georgie Botev
+ */
+public class CoveragePruner {
+
+	// Size of a page of pair coverages in bytes
+	private static final int PAGE_SIZE = 1 << 24;
+
+	private FragmentIndex index;
+	private int numSNP;
+	// Seed indices are always less than window sites apart
+	private int window;
+	// Minimum number of covering fragments for a combination to yield a seed
+	private int required;
+	// Pair coverages stop counting here, since a byte holds them
+	private int saturation;
+	// Number of fragments covering both i and i + d, up to saturation, is
+	// pages[i / pageSites][(i % pageSites) * window + d]
+	private int pageSites;
+	private byte[][] pages;
+
+	public CoveragePruner(FragmentStore store, FragmentIndex index, int window, int required) {
+		this.index = index;
+		this.numSNP = store.numSNP();
+		this.window = Math.max(1, window);
+		this.required = required;
+		this.saturation = Math.min(required, Byte.MAX_VALUE);
+		this.pageSites = Math.max(1, PAGE_SIZE / this.window);
+		this.pages = new byte[(int) (((long) this.numSNP + this.pageSites - 1) / this.pageSites)][];
+		long[] coverage = store.coverageWords();
+		int[] sites = new int[64];
+		for (int f = 0; f < store.size(); f++) {
+			// Collect the covered sites of the fragment
+			int numSites = 0;
+			int from = store.wordOffset(f);
+			int base = (store.startIndex(f) >>> 6) << 6;
+			for (int w = 0; w < store.numWords(f); w++) {
+				for (long bits = coverage[from + w]; bits != 0; bits &= bits - 1) {
+					if (numSites == sites.length) {
+						sites = Arrays.copyOf(sites, numSites * 2);
+					}
+					sites[numSites++] = base + (w << 6) + Long.numberOfTrailingZeros(bits);
+				}
+			}
+			// Count every pair of covered sites within the window
+			for (int a = 0; a < numSites; a++) {
+				if (a + 1 == numSites || sites[a + 1] - sites[a] >= this.window) {
+					continue;
+				}
+				byte[] page = this.page(sites[a]);
+				int row = (sites[a] % this.pageSites) * this.window;
+				for (int b = a + 1; b < numSites && sites[b] - sites[a] < this.window; b++) {
+					int i = row + sites[b] - sites[a];
+					if (page[i] < this.saturation) {
+						page[i]++;
+					}
+				}
+			}
+		}
+	}
+
+	private byte[] page(int snp) {
+		int p = snp / this.pageSites;
+		if (this.pages[p] == null) {
+			this.pages[p] = new byte[this.pageSites * this.window];
+		}
+		return this.pages[p];
+	}
+
+	/**
+	 * This method checks whether enough fragments cover the newest seed index
+	 * together with each of the previous ones for the combination to yield a
+	 * seed.
+	 *
+	 * @param indices The seed indices, set up to and including level.
+	 * @param level The newest seed index.
+	 * @return A boolean indicating whether the combination may yield a seed.
+	 */
+	public boolean canExtend(int[] indices, int level) {
+		if (this.index.coverage(indices[level]) < this.required) {
+			return false;
+		}
+		for (int i = 0; i < level; i++) {
+			byte[] page = this.pages[indices[i] / this.pageSites];
+			// With a saturated count the pair may still reach the required coverage
+			if (page == null || page[(indices[i] % this.pageSites) * this.window + indices[level]
+					- indices[i]] < this.saturation) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * This method counts the combinations of seed indices that the seeding
+	 * step enumerates without pruning.
+	 *
+	 * @param seedLength The number of seed indices.
+	 * @return The number of combinations.
+	 */
+	public long numCombinations(int seedLength) {
+		long total = 0;
+		for (int first = 0; first < this.numSNP; first++) {
+			// Remaining indices are chosen from the sites after first within the window
+			long sites = Math.min(this.window - 1, this.numSNP - 1 - first);
+			long combinations = 1;
+			for (int i = 0; i < seedLength - 1; i++) {
+				combinations = combinations * (sites - i) / (i + 1);
+			}
+			total += Math.max(0, combinations);
+		}
+		return total;
+	}
+
+}
@@ -29,6 +29,14 @@ public class FIFOFrequencyArrayPair implements Comparable<FIFOFrequencyArrayPair
 		return this.fap;
 	}
 	
+	/**
+	 * This method retrieves the number that breaks ties between equal scores.
+	 * @return The sequence number.
+	 */
+	public long getSeqNum() {
+		return this.seqNum;
+	}
+	
 	@Override
 	public boolean equals(Object o) {
 		// Check if being compared to itself
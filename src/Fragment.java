@@ -2,7 +2,10 @@ import java.util.Objects;
 
 /**
  * This class contains all the properties necessary to represent a fragment
- * utilizing the short encoding.
+ * utilizing the short encoding. Alongside the pattern itself, the alleles are
+ * packed into two bit vectors aligned to the SNP index: one marking the sites
+ * that the fragment covers (i.e. is not '-') and one holding the allele at
+ * each covered site. Bit i of word w corresponds to SNP site 64 * w + i.
  * 
  * @author Georgie Botev
  */
@@ -13,6 +16,10 @@ public class Fragment {
 	private String fragment;
 	private int frequency;
 	private int length;
+	// Index of the first word of the packed representation
+	private int firstWord;
+	private long[] coverage;
+	private long[] alleles;
 
 	public Fragment(int startIndex, String fragment) {
 		this.startIndex = startIndex;
@@ -20,6 +27,22 @@ public class Fragment {
 		this.frequency = 1;
 		this.length = fragment.length();
 		this.endIndex = startIndex + this.length - 1;
+		// Pack alleles into SNP-aligned words
+		this.firstWord = startIndex >>> 6;
+		int numWords = this.length == 0 ? 0 : (this.endIndex >>> 6) - this.firstWord + 1;
+		this.coverage = new long[numWords];
+		this.alleles = new long[numWords];
+		for (int i = 0; i < this.length; i++) {
+			char c = fragment.charAt(i);
+			if (c == '0' || c == '1') {
+				int snp = startIndex + i;
+				int word = (snp >>> 6) - this.firstWord;
+				this.coverage[word] |= 1L << snp;
+				if (c == '1') {
+					this.alleles[word] |= 1L << snp;
+				}
+			}
+		}
 	}
 	
 	public static int compareFragments(Fragment f1, Fragment f2) {
@@ -33,24 +56,71 @@ public class Fragment {
 		this.frequency++;
 	}
 	
+	/**
+	 * This method adds the given number of occurrences to the frequency of
+	 * the fragment.
+	 * 
+	 * @param frequency The number of occurrences to add.
+	 */
+	public void addFrequency(int frequency) {
+		this.frequency += frequency;
+	}
+	
+	/**
+	 * This method counts the number of SNP sites at which both fragments are
+	 * defined and agree.
+	 * 
+	 * @param f The fragment to compare against.
+	 * @return The number of matching SNP sites.
+	 */
 	public int similarTo(Fragment f) {
-		// Determine overlapping range (i.e. active region)
-		int start = Math.max(this.startIndex, f.startIndex);
-		int end = Math.min(this.endIndex, f.endIndex);
+		// Determine overlapping range of words; coverage is zero outside of
+		// each fragment, so no further masking is needed
+		int start = Math.max(this.firstWord, f.firstWord);
+		int end = Math.min(this.firstWord + this.coverage.length, f.firstWord + f.coverage.length);
 		// Initialize counter for number of matches between the fragments
 		int similarityScore = 0;
-		// Remember that bounds are INCLUSIVE
-		for (int i = start; i <= end; i++) {
-			char c1 = this.fragment.charAt(i - this.startIndex);
-			char c2 = f.fragment.charAt(i - f.startIndex);
-			if (c1 != '-' && c2 != '-' && c1 == c2) {
-				// Match at this position
-				similarityScore += 1;
-			}
+		for (int w = start; w < end; w++) {
+			int i = w - this.firstWord;
+			int j = w - f.firstWord;
+			similarityScore += Long.bitCount(~(this.alleles[i] ^ f.alleles[j])
+					& this.coverage[i] & f.coverage[j]);
 		}
 		return similarityScore;
 	}
 	
+	/**
+	 * This method checks whether the fragment has a '0' or '1' at the given
+	 * SNP site.
+	 * 
+	 * @param snp The SNP site to check.
+	 * @return A boolean indicating whether the site is covered.
+	 */
+	public boolean covers(int snp) {
+		if (snp < this.startIndex || snp > this.endIndex) {
+			return false;
+		}
+		return (this.coverage[(snp >>> 6) - this.firstWord] & (1L << snp)) != 0;
+	}
+	
+	/**
+	 * This method gets the allele of the fragment at the given SNP site.
+	 * 
+	 * @param snp The SNP site to look up.
+	 * @return 0 or 1, or -1 if the site is not covered.
+	 */
+	public int allele(int snp) {
+		if (snp < this.startIndex || snp > this.endIndex) {
+			return -1;
+		}
+		int word = (snp >>> 6) - this.firstWord;
+		long bit = 1L << snp;
+		if ((this.coverage[word] & bit) == 0) {
+			return -1;
+		}
+		return (this.alleles[word] & bit) != 0 ? 1 : 0;
+	}
+	
 	@Override
 	public String toString() {
 		return this.fragment;
@@ -126,4 +196,34 @@ public class Fragment {
 		return this.endIndex;
 	}
 
+	/**
+	 * This method gets the index of the first word of the packed
+	 * representation, i.e. startIndex / 64.
+	 * 
+	 * @return The index of the first packed word.
+	 */
+	public int firstWord() {
+		return this.firstWord;
+	}
+
+	/**
+	 * This method gets the packed coverage words of the fragment. Bit i of
+	 * word w is set if SNP site 64 * (firstWord + w) + i is covered.
+	 * 
+	 * @return The packed coverage words; do not modify.
+	 */
+	public long[] coverageWords() {
+		return this.coverage;
+	}
+
+	/**
+	 * This method gets the packed allele words of the fragment. A bit is set
+	 * if the corresponding covered SNP site holds a '1'.
+	 * 
+	 * @return The packed allele words; do not modify.
+	 */
+	public long[] alleleWords() {
+		return this.alleles;
+	}
+
 }
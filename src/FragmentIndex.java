@@ -0,0 +1,115 @@
+import java.util.Arrays;
+
+/**
+ * This class indexes the fragments of a FragmentStore by the SNP sites they
+ * cover. For every SNP site it keeps a bucket of the IDs of the fragments that
+ * have a '0' or '1' there, sorted by decreasing ending index, so that the
+ * fragments covering one site and still spanning a later one form a prefix of
+ * the bucket. Seeding only uses the buckets to find those fragments, so the
+ * order within a bucket does not affect the seeds.
+ *
+ * @author Georgie Botev
+ */
+public class FragmentIndex {
+
+	private FragmentStore store;
+	// Bucket of SNP site i is ids[offsets[i] .. offsets[i + 1])
+	private int[] offsets;
+	private int[] ids;
+
+	public FragmentIndex(FragmentStore store) {
+		this.store = store;
+		int numSNP = store.numSNP();
+		int numFragments = store.size();
+		long[] coverage = store.coverageWords();
+		// Count the number of covering fragments at each SNP site
+		this.offsets = new int[numSNP + 1];
+		for (int f = 0; f < numFragments; f++) {
+			int from = store.wordOffset(f);
+			int base = (store.startIndex(f) >>> 6) << 6;
+			for (int w = 0; w < store.numWords(f); w++) {
+				for (long bits = coverage[from + w]; bits != 0; bits &= bits - 1) {
+					this.offsets[base + (w << 6) + Long.numberOfTrailingZeros(bits) + 1]++;
+				}
+			}
+		}
+		for (int i = 0; i < numSNP; i++) {
+			this.offsets[i + 1] += this.offsets[i];
+		}
+		// Visit fragments by decreasing ending index so that every bucket is
+		// filled in that order; ties are broken by ID
+		long[] order = new long[numFragments];
+		for (int f = 0; f < numFragments; f++) {
+			order[f] = ((long) (Integer.MAX_VALUE - store.endIndex(f)) << 32) | f;
+		}
+		Arrays.sort(order);
+		int[] next = Arrays.copyOf(this.offsets, numSNP);
+		this.ids = new int[this.offsets[numSNP]];
+		for (long key : order) {
+			int f = (int) key;
+			int from = store.wordOffset(f);
+			int base = (store.startIndex(f) >>> 6) << 6;
+			for (int w = 0; w < store.numWords(f); w++) {
+				for (long bits = coverage[from + w]; bits != 0; bits &= bits - 1) {
+					this.ids[next[base + (w << 6) + Long.numberOfTrailingZeros(bits)]++] = f;
+				}
+			}
+		}
+	}
+
+	/**
+	 * This method gets the number of fragments with a '0' or '1' at the given
+	 * SNP site.
+	 *
+	 * @param snp The SNP site.
+	 * @return The number of covering fragments.
+	 */
+	public int coverage(int snp) {
+		return this.offsets[snp + 1] - this.offsets[snp];
+	}
+
+	/**
+	 * This method gets the offset of the first ID in the bucket of the given
+	 * SNP site within ids().
+	 *
+	 * @param snp The SNP site.
+	 * @return The offset of the bucket.
+	 */
+	public int bucketStart(int snp) {
+		return this.offsets[snp];
+	}
+
+	/**
+	 * This method gets the offset one past the last ID of the bucket of the
+	 * given SNP site that still spans the given later SNP site. Since buckets
+	 * are sorted by decreasing ending index, the matching IDs form a prefix.
+	 *
+	 * @param snp The SNP site whose bucket to search.
+	 * @param last The SNP site the fragments must still span.
+	 * @return The offset one past the last spanning ID.
+	 */
+	public int bucketEnd(int snp, int last) {
+		// Binary search for the first fragment ending before last
+		int low = this.offsets[snp];
+		int high = this.offsets[snp + 1];
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (this.store.endIndex(this.ids[mid]) >= last) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * This method gets the bucketed fragment IDs of every SNP site.
+	 *
+	 * @return The bucketed IDs; do not modify.
+	 */
+	public int[] ids() {
+		return this.ids;
+	}
+
+}
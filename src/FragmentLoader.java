@@ -0,0 +1,231 @@
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * This class loads a fragment matrix in short format (i.e. one
+ * "startIndex\tpattern" entry per line) by memory-mapping the file and
+ * parsing newline-aligned chunks of it in parallel. Duplicate fragments are
+ * merged through a concurrent map keyed on the starting index and pattern, so
+ * loading scales with the size of the file rather than with the number of
+ * distinct fragments.
+ *
+ * @author Georgie Botev
+ */
+public class FragmentLoader {
+
+	// Target number of bytes parsed by a single task
+	private static final int CHUNK_SIZE = 1 << 24;
+	// Number of bytes read at a time while searching for a line boundary
+	private static final int SCAN_SIZE = 1 << 12;
+
+	/**
+	 * This method loads the fragment matrix stored in the given file using all
+	 * available processors.
+	 *
+	 * @param fileName The path of the fragment matrix in short format.
+	 * @return The set of distinct fragments with their frequencies merged.
+	 * @throws IOException If the file could not be read.
+	 */
+	public static Set<Fragment> load(String fileName) throws IOException {
+		return load(fileName, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * This method loads the fragment matrix stored in the given file using the
+	 * given level of parallelism.
+	 *
+	 * @param fileName The path of the fragment matrix in short format.
+	 * @param parallelism The number of threads used to parse the file.
+	 * @return The set of distinct fragments with their frequencies merged.
+	 * @throws IOException If the file could not be read.
+	 */
+	public static Set<Fragment> load(String fileName, int parallelism) throws IOException {
+		try (RandomAccessFile file = new RandomAccessFile(fileName, "r");
+				FileChannel channel = file.getChannel()) {
+			long[] bounds = chunkBounds(channel);
+			ConcurrentHashMap<Fragment, Fragment> fragments = new ConcurrentHashMap<Fragment, Fragment>(
+					16, 0.75f, parallelism);
+			ExecutorService executorService = Executors.newWorkStealingPool(parallelism);
+			try {
+				List<Future<?>> futures = new ArrayList<Future<?>>(bounds.length - 1);
+				for (int i = 0; i < bounds.length - 1; i++) {
+					// Each chunk is line-aligned and smaller than the mapping limit
+					long offset = bounds[i];
+					MappedByteBuffer chunk = channel.map(FileChannel.MapMode.READ_ONLY, offset,
+							bounds[i + 1] - offset);
+					futures.add(executorService.submit(new Callable<Void>() {
+						@Override
+						public Void call() throws IOException {
+							parseChunk(chunk, offset, fragments);
+							return null;
+						}
+					}));
+				}
+				for (Future<?> future : futures) {
+					future.get();
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException(String.format("Interrupted while loading %s.", fileName), e);
+			} catch (ExecutionException e) {
+				// The pool may wrap the IOException of a chunk in a RuntimeException
+				Throwable cause = e.getCause();
+				while (cause instanceof RuntimeException && cause.getCause() != null) {
+					cause = cause.getCause();
+				}
+				throw new IOException(String.format("Unable to parse %s: %s", fileName, cause.getMessage()), cause);
+			} finally {
+				executorService.shutdownNow();
+			}
+			return new HashSet<Fragment>(fragments.keySet());
+		}
+	}
+
+	/**
+	 * This method splits the file into chunks of roughly CHUNK_SIZE bytes
+	 * whose boundaries always fall directly after a newline.
+	 *
+	 * @param channel The channel of the file to split.
+	 * @return The sorted chunk boundaries, including zero and the file size.
+	 * @throws IOException If the file could not be read.
+	 */
+	private static long[] chunkBounds(FileChannel channel) throws IOException {
+		long size = channel.size();
+		List<Long> bounds = new ArrayList<Long>();
+		bounds.add(0L);
+		ByteBuffer scan = ByteBuffer.allocate(SCAN_SIZE);
+		long position = CHUNK_SIZE;
+		while (position < size) {
+			// Advance to the byte following the next newline
+			long boundary = size;
+			search: while (position < size) {
+				scan.clear();
+				int read = channel.read(scan, position);
+				if (read <= 0) {
+					break;
+				}
+				for (int i = 0; i < read; i++) {
+					if (scan.get(i) == '\n') {
+						boundary = position + i + 1;
+						break search;
+					}
+				}
+				position += read;
+			}
+			if (boundary < size) {
+				bounds.add(boundary);
+			}
+			position = boundary + CHUNK_SIZE;
+		}
+		bounds.add(size);
+		long[] result = new long[bounds.size()];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = bounds.get(i);
+		}
+		return result;
+	}
+
+	/**
+	 * This method parses every line in the given chunk and merges the
+	 * resulting fragments into the shared map. Lines without a tab are
+	 * skipped.
+	 *
+	 * @param chunk The line-aligned chunk to parse.
+	 * @param offset The position of the chunk in the file.
+	 * @param fragments The shared map of distinct fragments.
+	 * @throws IOException If a line has an empty or non-numeric starting
+	 *         index or an empty pattern.
+	 */
+	private static void parseChunk(ByteBuffer chunk, long offset, ConcurrentHashMap<Fragment, Fragment> fragments)
+			throws IOException {
+		byte[] pattern = new byte[64];
+		int limit = chunk.limit();
+		int position = 0;
+		while (position < limit) {
+			int lineStart = position;
+			// Parse starting index up to the tab character
+			int startIndex = 0;
+			int numDigits = 0;
+			boolean isNumeric = true;
+			boolean hasTab = false;
+			byte b = 0;
+			while (position < limit && (b = chunk.get(position)) != '\n') {
+				position++;
+				if (b == '\t') {
+					hasTab = true;
+					break;
+				}
+				if (b >= '0' && b <= '9' && startIndex <= (Integer.MAX_VALUE - 9) / 10) {
+					startIndex = startIndex * 10 + (b - '0');
+					numDigits++;
+				} else {
+					isNumeric = false;
+				}
+			}
+			// Parse pattern up to the end of the line
+			int length = 0;
+			while (position < limit && (b = chunk.get(position)) != '\n') {
+				position++;
+				if (b == '\r') {
+					continue;
+				}
+				if (length == pattern.length) {
+					byte[] grown = new byte[pattern.length * 2];
+					System.arraycopy(pattern, 0, grown, 0, length);
+					pattern = grown;
+				}
+				pattern[length++] = b;
+			}
+			// Skip newline
+			position++;
+			if (hasTab && (!isNumeric || numDigits == 0 || length == 0)) {
+				throw new IOException(String.format("Invalid fragment at byte %d: \"%s\"", offset + lineStart,
+						line(chunk, lineStart, position - 1)));
+			}
+			if (hasTab) {
+				Fragment currFragment = new Fragment(startIndex,
+						new String(pattern, 0, length, StandardCharsets.US_ASCII));
+				// Merge is atomic per key, so concurrent duplicates are counted once each
+				fragments.merge(currFragment, currFragment, (f1, f2) -> {
+					f1.addFrequency(f2.frequency());
+					return f1;
+				});
+			}
+		}
+	}
+
+	/**
+	 * This method reads a line of the given chunk for error messages.
+	 *
+	 * @param chunk The chunk holding the line.
+	 * @param from The position of the first byte of the line.
+	 * @param to The position after the last byte of the line.
+	 * @return The line without its trailing carriage return.
+	 */
+	private static String line(ByteBuffer chunk, int from, int to) {
+		to = Math.min(to, chunk.limit());
+		if (to > from && chunk.get(to - 1) == '\r') {
+			to--;
+		}
+		byte[] bytes = new byte[to - from];
+		for (int i = 0; i < bytes.length; i++) {
+			bytes[i] = chunk.get(from + i);
+		}
+		return new String(bytes, StandardCharsets.US_ASCII);
+	}
+
+}
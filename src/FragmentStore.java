@@ -0,0 +1,326 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * This class stores a set of distinct fragments column by column, so that
+ * every other part of the solver can refer to a fragment by a dense int ID.
+ * IDs are assigned in order of starting index. The alleles of fragment id are
+ * packed into the words coverage[wordOffset[id] .. wordOffset[id + 1]) and
+ * alleles[wordOffset[id] .. wordOffset[id + 1]), aligned to the SNP index in
+ * the same way as in Fragment.
+ *
+ * @author Georgie Botev
+ */
+public class FragmentStore {
+
+	private int size;
+	private int numSNP;
+	private int[] starts;
+	private int[] ends;
+	private int[] frequencies;
+	private int[] wordOffsets;
+	private long[] coverage;
+	private long[] alleles;
+
+	private FragmentStore(Builder builder) {
+		this.size = builder.size;
+		this.numSNP = builder.numSNP;
+		this.starts = Arrays.copyOf(builder.starts, builder.size);
+		this.ends = Arrays.copyOf(builder.ends, builder.size);
+		this.frequencies = Arrays.copyOf(builder.frequencies, builder.size);
+		this.wordOffsets = Arrays.copyOf(builder.wordOffsets, builder.size + 1);
+		this.coverage = Arrays.copyOf(builder.coverage, builder.numWords);
+		this.alleles = Arrays.copyOf(builder.alleles, builder.numWords);
+	}
+
+	/**
+	 * This method builds a store from the given distinct fragments, assigning
+	 * IDs in order of starting index and breaking ties by pattern. Unlike the
+	 * iteration order of a HashSet<Fragment>, which seeding used to follow,
+	 * this order is deterministic, and seed selection does not depend on it.
+	 *
+	 * @param fragments The distinct fragments to store.
+	 * @return The store holding the given fragments.
+	 */
+	public static FragmentStore of(Collection<Fragment> fragments) {
+		return of(fragments, 0);
+	}
+
+	/**
+	 * This method builds a store from the given distinct fragments, moved down
+	 * by the given number of SNP sites. The shift must be a multiple of 64, so
+	 * that the packed words of every fragment are copied unchanged.
+	 *
+	 * @param fragments The distinct fragments to store, none of which starts
+	 *            before the shift.
+	 * @param shift The number of SNP sites to move the fragments down by.
+	 * @return The store holding the given fragments.
+	 */
+	public static FragmentStore of(Collection<Fragment> fragments, int shift) {
+		if ((shift & 63) != 0) {
+			throw new IllegalArgumentException("The shift must be a multiple of 64.");
+		}
+		List<Fragment> sorted = new ArrayList<Fragment>(fragments);
+		Collections.sort(sorted, new Comparator<Fragment>() {
+			public int compare(Fragment f1, Fragment f2) {
+				int result = Fragment.compareFragments(f1, f2);
+				return result != 0 ? result : f1.toString().compareTo(f2.toString());
+			}
+		});
+		Builder builder = new Builder(sorted.size());
+		for (Fragment f : sorted) {
+			builder.add(f.startIndex() - shift, f.length(), f.frequency(), f.coverageWords(), f.alleleWords());
+		}
+		return builder.build();
+	}
+
+	/**
+	 * This method builds a store from a range of IDs of this one, moving every
+	 * fragment down by the given number of SNP sites. The shift must be a
+	 * multiple of 64, so that the packed words are copied unchanged.
+	 *
+	 * @param from The first ID to copy.
+	 * @param to One more than the last ID to copy.
+	 * @param shift The number of SNP sites to move the fragments down by.
+	 * @return The store holding the given fragments, with IDs from 0.
+	 */
+	public FragmentStore subset(int from, int to, int shift) {
+		if ((shift & 63) != 0) {
+			throw new IllegalArgumentException("The shift must be a multiple of 64.");
+		}
+		Builder builder = new Builder(to - from);
+		for (int id = from; id < to; id++) {
+			int offset = this.wordOffsets[id];
+			int end = this.wordOffsets[id + 1];
+			builder.add(this.starts[id] - shift, this.length(id), this.frequencies[id],
+					Arrays.copyOfRange(this.coverage, offset, end), Arrays.copyOfRange(this.alleles, offset, end));
+		}
+		return builder.build();
+	}
+
+	/**
+	 * This class accumulates fragments for a FragmentStore. Fragments should
+	 * be added in order of starting index.
+	 */
+	public static class Builder {
+		private int size;
+		private int numSNP;
+		private int numWords;
+		private int[] starts;
+		private int[] ends;
+		private int[] frequencies;
+		private int[] wordOffsets;
+		private long[] coverage;
+		private long[] alleles;
+
+		public Builder(int expectedSize) {
+			int capacity = Math.max(expectedSize, 16);
+			this.starts = new int[capacity];
+			this.ends = new int[capacity];
+			this.frequencies = new int[capacity];
+			this.wordOffsets = new int[capacity + 1];
+			this.coverage = new long[capacity];
+			this.alleles = new long[capacity];
+		}
+
+		/**
+		 * This method appends a fragment to the store.
+		 *
+		 * @param startIndex The starting index of the fragment.
+		 * @param length The length of the fragment.
+		 * @param frequency The number of times the fragment was observed.
+		 * @param coverageWords The SNP-aligned coverage words, starting at
+		 *            word startIndex / 64.
+		 * @param alleleWords The SNP-aligned allele words, starting at word
+		 *            startIndex / 64.
+		 * @return The ID of the appended fragment.
+		 */
+		public int add(int startIndex, int length, int frequency, long[] coverageWords, long[] alleleWords) {
+			if (this.size == this.starts.length) {
+				int capacity = this.size * 2;
+				this.starts = Arrays.copyOf(this.starts, capacity);
+				this.ends = Arrays.copyOf(this.ends, capacity);
+				this.frequencies = Arrays.copyOf(this.frequencies, capacity);
+				this.wordOffsets = Arrays.copyOf(this.wordOffsets, capacity + 1);
+			}
+			int endIndex = startIndex + length - 1;
+			int words = length == 0 ? 0 : (endIndex >>> 6) - (startIndex >>> 6) + 1;
+			if (this.numWords + words > this.coverage.length) {
+				int capacity = Math.max(this.coverage.length * 2, this.numWords + words);
+				this.coverage = Arrays.copyOf(this.coverage, capacity);
+				this.alleles = Arrays.copyOf(this.alleles, capacity);
+			}
+			System.arraycopy(coverageWords, 0, this.coverage, this.numWords, words);
+			System.arraycopy(alleleWords, 0, this.alleles, this.numWords, words);
+			this.starts[this.size] = startIndex;
+			this.ends[this.size] = endIndex;
+			this.frequencies[this.size] = frequency;
+			this.wordOffsets[this.size] = this.numWords;
+			this.numWords += words;
+			this.wordOffsets[this.size + 1] = this.numWords;
+			this.numSNP = Math.max(this.numSNP, endIndex + 1);
+			return this.size++;
+		}
+
+		public FragmentStore build() {
+			return new FragmentStore(this);
+		}
+	}
+
+	/**
+	 * This method gets the number of fragments in the store.
+	 *
+	 * @return The number of fragments.
+	 */
+	public int size() {
+		return this.size;
+	}
+
+	/**
+	 * This method gets the number of SNP sites spanned by the fragments, i.e.
+	 * one more than the largest ending index.
+	 *
+	 * @return The number of SNP sites.
+	 */
+	public int numSNP() {
+		return this.numSNP;
+	}
+
+	public int startIndex(int id) {
+		return this.starts[id];
+	}
+
+	public int endIndex(int id) {
+		return this.ends[id];
+	}
+
+	public int length(int id) {
+		return this.ends[id] - this.starts[id] + 1;
+	}
+
+	public int frequency(int id) {
+		return this.frequencies[id];
+	}
+
+	/**
+	 * This method gets the offset of the first packed word of the given
+	 * fragment within coverageWords() and alleleWords().
+	 *
+	 * @param id The ID of the fragment.
+	 * @return The offset of the first packed word.
+	 */
+	public int wordOffset(int id) {
+		return this.wordOffsets[id];
+	}
+
+	/**
+	 * This method gets the number of packed words of the given fragment.
+	 *
+	 * @param id The ID of the fragment.
+	 * @return The number of packed words.
+	 */
+	public int numWords(int id) {
+		return this.wordOffsets[id + 1] - this.wordOffsets[id];
+	}
+
+	/**
+	 * This method gets the packed coverage words of every fragment.
+	 *
+	 * @return The packed coverage words; do not modify.
+	 */
+	public long[] coverageWords() {
+		return this.coverage;
+	}
+
+	/**
+	 * This method gets the packed allele words of every fragment.
+	 *
+	 * @return The packed allele words; do not modify.
+	 */
+	public long[] alleleWords() {
+		return this.alleles;
+	}
+
+	/**
+	 * This method checks whether the given fragment has a '0' or '1' at the
+	 * given SNP site.
+	 *
+	 * @param id The ID of the fragment.
+	 * @param snp The SNP site to check.
+	 * @return A boolean indicating whether the site is covered.
+	 */
+	public boolean covers(int id, int snp) {
+		int start = this.starts[id];
+		if (snp < start || snp > this.ends[id]) {
+			return false;
+		}
+		return (this.coverage[this.wordOffsets[id] + (snp >>> 6) - (start >>> 6)] & (1L << snp)) != 0;
+	}
+
+	/**
+	 * This method gets the allele of the given fragment at the given SNP site.
+	 *
+	 * @param id The ID of the fragment.
+	 * @param snp The SNP site to look up.
+	 * @return 0 or 1, or -1 if the site is not covered.
+	 */
+	public int allele(int id, int snp) {
+		int start = this.starts[id];
+		if (snp < start || snp > this.ends[id]) {
+			return -1;
+		}
+		int word = this.wordOffsets[id] + (snp >>> 6) - (start >>> 6);
+		long bit = 1L << snp;
+		if ((this.coverage[word] & bit) == 0) {
+			return -1;
+		}
+		return (this.alleles[word] & bit) != 0 ? 1 : 0;
+	}
+
+	/**
+	 * This method counts the number of SNP sites at which the stored fragment
+	 * and the given fragment are both defined and agree.
+	 *
+	 * @param id The ID of the stored fragment.
+	 * @param f The fragment to compare against.
+	 * @return The number of matching SNP sites.
+	 */
+	public int similarTo(int id, Fragment f) {
+		int firstWord = this.starts[id] >>> 6;
+		int offset = this.wordOffsets[id];
+		long[] fCoverage = f.coverageWords();
+		long[] fAlleles = f.alleleWords();
+		int start = Math.max(firstWord, f.firstWord());
+		int end = Math.min(firstWord + this.numWords(id), f.firstWord() + fCoverage.length);
+		int similarityScore = 0;
+		for (int w = start; w < end; w++) {
+			int i = offset + w - firstWord;
+			int j = w - f.firstWord();
+			similarityScore += Long.bitCount(~(this.alleles[i] ^ fAlleles[j]) & this.coverage[i] & fCoverage[j]);
+		}
+		return similarityScore;
+	}
+
+	/**
+	 * This method reconstructs the given fragment, including its frequency.
+	 *
+	 * @param id The ID of the fragment.
+	 * @return The reconstructed fragment.
+	 */
+	public Fragment fragment(int id) {
+		int start = this.starts[id];
+		char[] pattern = new char[this.length(id)];
+		for (int i = 0; i < pattern.length; i++) {
+			int allele = this.allele(id, start + i);
+			pattern[i] = allele < 0 ? '-' : (char) ('0' + allele);
+		}
+		Fragment f = new Fragment(start, new String(pattern));
+		f.addFrequency(this.frequencies[id] - 1);
+		return f;
+	}
+
+}
@@ -1,3 +1,5 @@
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
@@ -6,39 +8,66 @@ import java.util.Set;
 
 /**
  * This class efficiently keeps track of the frequencies at each SNP site.
+ * Frequencies are only stored for a window of SNP sites containing the active
+ * region, where num0[i] holds the frequency at SNP site offset + i, and the
+ * window grows as fragments are added. The number of supporting fragments
+ * starting and ending at each site of the window is kept as well, so that the
+ * active region can be shrunk without visiting the remaining fragments. The
+ * SADF and MEC scores are updated incrementally with every change in frequency,
+ * and the consensus is cached until the frequencies change.
  * 
  * @author Georgie Botev
  */
 public class FrequencyArray {
 
+	private FragmentStore store;
 	private int numSNP;
 	private int activeStart;
 	private int activeEnd;
+	// SNP site corresponding to index zero of the frequency arrays
+	private int offset;
 	private int[] num0;
 	private int[] num1;
-	private Set<Fragment> supportingFragments;
+	// Number of supporting fragments starting and ending at each SNP site
+	private int[] numStarting;
+	private int[] numEnding;
+	private IntSet supportingFragments;
 	private Set<Integer> tags;
+	private int sadf;
+	private int mec;
+	// Cached consensus, or null if the frequencies changed since
+	private Fragment consensus;
+	// Stable ID assigned by the Solver and whether this FrequencyArray is still
+	// a candidate for merging
+	private int id = -1;
+	private boolean live = true;
 	
-	public FrequencyArray(int numSNP) {
-		this.numSNP = numSNP;
-		// Initialize frequency arrays; by default, initialization occurs with 0
-		this.num0 = new int[this.numSNP];
-		this.num1 = new int[this.numSNP];
+	public FrequencyArray(FragmentStore store) {
+		this.store = store;
+		this.numSNP = store.numSNP();
+		// Frequency arrays are allocated once the first fragment is added
+		this.num0 = new int[0];
+		this.num1 = new int[0];
+		this.numStarting = new int[0];
+		this.numEnding = new int[0];
 		// this.activeEnd = 0 by default
 		this.activeStart = this.numSNP;
-		this.supportingFragments = new HashSet<Fragment>();
+		this.supportingFragments = new IntSet();
 		// Initialize set of tags
 		this.tags = new HashSet<Integer>();
 	}
 	
-	public FrequencyArray(int numSNP, int tag) {
-		this.numSNP = numSNP;
-		// Initialize frequency arrays; by default, initialization occurs with 0
-		this.num0 = new int[this.numSNP];
-		this.num1 = new int[this.numSNP];
+	public FrequencyArray(FragmentStore store, int tag) {
+		this.store = store;
+		this.numSNP = store.numSNP();
+		// Frequency arrays are allocated once the first fragment is added
+		this.num0 = new int[0];
+		this.num1 = new int[0];
+		this.numStarting = new int[0];
+		this.numEnding = new int[0];
 		// this.activeEnd = 0 by default
 		this.activeStart = this.numSNP;
-		this.supportingFragments = new HashSet<Fragment>();
+		this.supportingFragments = new IntSet();
 		// Initialize set of tags
 		this.tags = new HashSet<Integer>();
 		this.tags.add(tag);
@@ -48,6 +77,14 @@ public class FrequencyArray {
 		return this.activeEnd - this.activeStart + 1;
 	}
 	
+	public int activeStart() {
+		return this.activeStart;
+	}
+	
+	public int activeEnd() {
+		return this.activeEnd;
+	}
+	
 	public int numSupportingFrags() {
 		return this.supportingFragments.size();
 	}
@@ -60,6 +97,36 @@ public class FrequencyArray {
 		return tags.iterator().next();
 	}
 	
+	/**
+	 * This method adds the given tags, as when restoring a FrequencyArray from
+	 * a checkpoint.
+	 * 
+	 * @param tags The tags to add.
+	 */
+	public void addTags(Collection<Integer> tags) {
+		this.tags.addAll(tags);
+	}
+	
+	public int getId() {
+		return this.id;
+	}
+	
+	public void setId(int id) {
+		this.id = id;
+	}
+	
+	public boolean isLive() {
+		return this.live;
+	}
+	
+	/**
+	 * This method marks this FrequencyArray as no longer being a candidate for
+	 * merging, so that any pairs still referring to it can be discarded.
+	 */
+	public void retire() {
+		this.live = false;
+	}
+	
 	@Override
 	public boolean equals(Object o) {
 		// Check if being compared to itself
@@ -94,150 +161,269 @@ public class FrequencyArray {
 	}
 	
 	/**
-	 * This method gets the supporting fragments for this FrequencyArray.
-	 * @return The Set of supporting fragments.
+	 * This method gets the IDs of the supporting fragments for this FrequencyArray.
+	 * @return The set of supporting fragment IDs.
 	 */
-	public Set<Fragment> getFrags() {
+	public IntSet getFrags() {
 		return this.supportingFragments;
 	}
 	
 	/**
-	 * This method calculates the SADF score of the supporting fragments efficiently.
+	 * This method gets the SADF score of the supporting fragments, which is kept
+	 * up to date as fragments are added and removed.
 	 * @return The SADF score of the supporting fragments.
 	 */
 	public int sadf() {
-		int sadf = 0;
-		for (int i = 0; i < this.numSNP; i++) {
-			sadf += Math.abs(this.num0[i] - this.num1[i]);
-		}
-		return sadf; 
+		return this.sadf;
 	}
 	
 	/**
 	 * This method calculates the MEC score of the supporting fragments efficiently.
 	 * This only works for reasonable results because it is assumed that the majority
-	 * is correct.
+	 * is correct. The score is kept up to date as fragments are added and removed.
 	 * @return The MEC score of the supporting fragments.
 	 */
 	public int mec() {
-		int mec = 0;
-		for (int i = 0; i < this.numSNP; i++) {
-			mec += Math.min(this.num0[i], this.num1[i]);
-		}
-		return mec;
+		return this.mec;
 	}
 	
 	/**
 	 * This method removes the most conflicting fragments from the given set of seeds 
-	 * until no more can be removed.
+	 * until no more can be removed. Since every seed is filtered independently of
+	 * the others, the seeds are processed in parallel. Seeds left without any
+	 * supporting fragments are removed from the list.
 	 * @param fas The given set of haplotype seeds.
-	 * @return The set of haplotype seeds with the conflicting fragments removed.
+	 * @return The number of fragments removed.
+	 */
+	public static int removeConflictingFragments(List<FrequencyArray> fas) {
+		int counter = fas.parallelStream().mapToInt(FrequencyArray::removeConflictingFragments).sum();
+		fas.removeIf(fa -> fa.supportingFragments.isEmpty());
+		return counter;
+	}
+	
+	/**
+	 * This method repeatedly removes the supporting fragments that disagree with
+	 * the strict majority at any of their SNP sites until none are left.
+	 * @return The number of fragments removed.
 	 */
-	public static List<FrequencyArray> removeConflictingFragments(List<FrequencyArray> fas) {
+	public int removeConflictingFragments() {
 		int counter = 0;
-		for (int prevSize = Integer.MAX_VALUE; prevSize != fas.size();) {
-			// Keep track of the size
-			prevSize = fas.size();
-			Set<FrequencyArray> toRemoveFA = new HashSet<FrequencyArray>();
-			for (int j = 0; j < prevSize; j++) {
-				FrequencyArray fa = fas.get(j);
-				Set<Fragment> fragsToRemove = new HashSet<Fragment>();
-				for (Fragment f : fa.supportingFragments) {
-					String currFrag = f.toString();
-					for (int i = 0; i < f.length(); i++) {
-						int num0 = fa.num0[f.startIndex() + i];
-						int num1 = fa.num1[f.startIndex() + i];
-						char currSNP = currFrag.charAt(i);
-						if (currSNP == '0') {
-							if (num0 <= num1) {
-								fragsToRemove.add(f);
-								break;
-							}
-						} else if (currSNP == '1') {
-							if (num1 <= num0) {
-								fragsToRemove.add(f);
-								break;
-							}
-						} // Else, currSNP == '-', so do nothing!
-					}
+		IntSet fragsToRemove = new IntSet();
+		do {
+			fragsToRemove.clear();
+			this.supportingFragments.forEach(f -> {
+				if (this.conflicts(f)) {
+					fragsToRemove.add(f);
 				}
-				for (Fragment f : fragsToRemove) {
-					counter++;
-					fa.removeFragment(f);
+			});
+			counter += fragsToRemove.size();
+			this.removeFragment(fragsToRemove);
+		} while (!fragsToRemove.isEmpty());
+		return counter;
+	}
+	
+	/**
+	 * This method checks whether the given supporting fragment has an allele
+	 * at any SNP site that is not the strict majority there.
+	 * @param f The ID of the fragment to check.
+	 * @return A boolean indicating whether the fragment conflicts.
+	 */
+	private boolean conflicts(int f) {
+		for (int i = this.store.startIndex(f); i <= this.store.endIndex(f); i++) {
+			int currSNP = this.store.allele(f, i);
+			int num0 = this.num0[i - this.offset];
+			int num1 = this.num1[i - this.offset];
+			if (currSNP == 0) {
+				if (num0 <= num1) {
+					return true;
 				}
-				if (fa.supportingFragments.isEmpty()) {
-					toRemoveFA.add(fa);
+			} else if (currSNP == 1) {
+				if (num1 <= num0) {
+					return true;
 				}
-			}
-			fas.removeAll(toRemoveFA);
+			} // Else, SNP site is not covered, so do nothing!
 		}
-		System.err.printf("Removed %d fragments.\n", counter);
-		return fas;
+		return false;
 	}
 	
 	/**
 	 * This method updates the frequency arrays by adding the given fragment.
-	 * @param f The fragment to add.
+	 * @param f The ID of the fragment to add.
 	 */
-	public void addFragment(Fragment f) {
+	public void addFragment(int f) {
 		// Save fragment
 		if (this.supportingFragments.add(f)) {
+			// Make room for the fragment in the frequency arrays
+			this.ensureWindow(this.store.startIndex(f), this.store.endIndex(f));
 			// Update active region bounds
-			if (f.startIndex() < this.activeStart) {
-				this.activeStart = f.startIndex();
+			if (this.store.startIndex(f) < this.activeStart) {
+				this.activeStart = this.store.startIndex(f);
 			}
-			if (f.endIndex() > this.activeEnd) {
-				this.activeEnd = f.endIndex();
+			if (this.store.endIndex(f) > this.activeEnd) {
+				this.activeEnd = this.store.endIndex(f);
 			}
+			this.numStarting[this.store.startIndex(f) - this.offset]++;
+			this.numEnding[this.store.endIndex(f) - this.offset]++;
 			// Update frequency arrays
-			for (int i = 0; i < f.length(); i++) {
-				if (f.toString().charAt(i) == '0') {
-					this.num0[f.startIndex() + i] += f.frequency();
-				} else if (f.toString().charAt(i) == '1') {
-					this.num1[f.startIndex() + i] += f.frequency();
-				} // Else, fragment.toString().charAt(i) == '-', so do nothing!
+			this.updateCounts(f, this.store.frequency(f));
+		}
+	}
+	
+	/**
+	 * This method grows the window of the frequency arrays so that it contains
+	 * the given SNP sites. The window grows geometrically on the side being
+	 * extended so that repeated additions are amortized.
+	 * @param start The first SNP site that must be in the window.
+	 * @param end The last SNP site that must be in the window.
+	 */
+	private void ensureWindow(int start, int end) {
+		int windowEnd = this.offset + this.num0.length - 1;
+		if (this.num0.length > 0 && start >= this.offset && end <= windowEnd) {
+			return;
+		}
+		int newStart;
+		int newEnd;
+		if (this.num0.length == 0) {
+			newStart = start;
+			newEnd = end;
+		} else {
+			int slack = this.num0.length / 2;
+			newStart = start < this.offset ? Math.max(0, Math.min(start, this.offset - slack)) : this.offset;
+			newEnd = end > windowEnd ? Math.min(this.numSNP - 1, Math.max(end, windowEnd + slack)) : windowEnd;
+		}
+		this.num0 = grow(this.num0, this.offset - newStart, newEnd - newStart + 1);
+		this.num1 = grow(this.num1, this.offset - newStart, newEnd - newStart + 1);
+		this.numStarting = grow(this.numStarting, this.offset - newStart, newEnd - newStart + 1);
+		this.numEnding = grow(this.numEnding, this.offset - newStart, newEnd - newStart + 1);
+		this.offset = newStart;
+	}
+	
+	private static int[] grow(int[] counts, int shift, int length) {
+		int[] result = new int[length];
+		if (counts.length > 0) {
+			System.arraycopy(counts, 0, result, shift, counts.length);
+		}
+		return result;
+	}
+	
+	/**
+	 * This method adds the given weight to the frequency arrays at every SNP
+	 * site covered by the given stored fragment, updating the SADF and MEC
+	 * scores with the change at each site.
+	 * @param f The ID of the fragment whose alleles to count.
+	 * @param weight The amount to add at each covered site.
+	 */
+	private void updateCounts(int f, int weight) {
+		long[] coverage = this.store.coverageWords();
+		long[] alleles = this.store.alleleWords();
+		int from = this.store.wordOffset(f);
+		int base = ((this.store.startIndex(f) >>> 6) << 6) - this.offset;
+		for (int w = 0; w < this.store.numWords(f); w++) {
+			long bits = coverage[from + w];
+			while (bits != 0) {
+				int bit = Long.numberOfTrailingZeros(bits);
+				int i = base + (w << 6) + bit;
+				this.removeStatistics(i);
+				if ((alleles[from + w] & (1L << bit)) != 0) {
+					this.num1[i] += weight;
+				} else {
+					this.num0[i] += weight;
+				}
+				this.addStatistics(i);
+				// Clear lowest set bit
+				bits &= bits - 1;
+			}
+		}
+		this.consensus = null;
+	}
+	
+	private void removeStatistics(int i) {
+		this.sadf -= Math.abs(this.num0[i] - this.num1[i]);
+		this.mec -= Math.min(this.num0[i], this.num1[i]);
+	}
+	
+	private void addStatistics(int i) {
+		this.sadf += Math.abs(this.num0[i] - this.num1[i]);
+		this.mec += Math.min(this.num0[i], this.num1[i]);
+	}
+	
+	/**
+	 * This method adds the given weight to the frequency arrays at every SNP
+	 * site covered by the given fragment.
+	 * @param num0 The frequency array of '0' alleles.
+	 * @param num1 The frequency array of '1' alleles.
+	 * @param offset The SNP site corresponding to index zero of the arrays.
+	 * @param f The fragment whose alleles to count.
+	 * @param weight The amount to add at each covered site.
+	 */
+	private static void updateCounts(int[] num0, int[] num1, int offset, Fragment f, int weight) {
+		updateCounts(num0, num1, offset, f.coverageWords(), f.alleleWords(), 0, f.coverageWords().length,
+				f.firstWord(), weight);
+	}
+	
+	/**
+	 * This method adds the given weight to the frequency arrays at every SNP
+	 * site set in the given range of packed coverage words.
+	 * @param num0 The frequency array of '0' alleles.
+	 * @param num1 The frequency array of '1' alleles.
+	 * @param offset The SNP site corresponding to index zero of the arrays.
+	 * @param coverage The packed coverage words.
+	 * @param alleles The packed allele words.
+	 * @param from The index of the first word to walk.
+	 * @param numWords The number of words to walk.
+	 * @param firstWord The SNP-aligned index of the first word.
+	 * @param weight The amount to add at each covered site.
+	 */
+	private static void updateCounts(int[] num0, int[] num1, int offset, long[] coverage, long[] alleles,
+			int from, int numWords, int firstWord, int weight) {
+		int base = (firstWord << 6) - offset;
+		for (int w = 0; w < numWords; w++) {
+			long bits = coverage[from + w];
+			while (bits != 0) {
+				int bit = Long.numberOfTrailingZeros(bits);
+				int i = base + (w << 6) + bit;
+				if ((alleles[from + w] & (1L << bit)) != 0) {
+					num1[i] += weight;
+				} else {
+					num0[i] += weight;
+				}
+				// Clear lowest set bit
+				bits &= bits - 1;
 			}
 		}
 	}
 	
 	/**
 	 * This method updates the frequency arrays by adding the given set of fragments.
-	 * @param fragments The set of fragments to add.
+	 * @param fragments The set of fragment IDs to add.
 	 */
-	public void addFragment(Set<Fragment> fragments) {
-		for (Fragment f : fragments) {
-			this.addFragment(f);
-		}
+	public void addFragment(IntSet fragments) {
+		fragments.forEach(this::addFragment);
 	}
 	
 	/**
 	 * This method updates the frequency arrays by removing the given fragment.
-	 * @param f The fragment to remove.
+	 * @param f The ID of the fragment to remove.
 	 */
-	public void removeFragment(Fragment f) {
+	public void removeFragment(int f) {
 		// Remove fragment
 		if (this.supportingFragments.remove(f)) {
 			// Update frequency arrays
-			for (int i = 0; i < f.length(); i++) {
-				if (f.toString().charAt(i) == '0') {
-					this.num0[f.startIndex() + i] -= f.frequency();
-				} else if (f.toString().charAt(i) == '1') {
-					this.num1[f.startIndex() + i] -= f.frequency();
-				} // Else, fragment.toString().charAt(i) == '-', so do nothing!
-			}
-			// Update active region bounds
-			for (int i = 0; i < this.numSNP; i++) {
-				if (this.num0[i] != 0 && this.num1[i] != 0) {
-					// First SNP site with a contribution from at least one fragment
-					this.activeStart = i;
-					break;
+			this.updateCounts(f, -this.store.frequency(f));
+			this.numStarting[this.store.startIndex(f) - this.offset]--;
+			this.numEnding[this.store.endIndex(f) - this.offset]--;
+			// Shrink the active region past the sites where no fragment starts
+			// or ends any more, so that it always matches that of a
+			// FrequencyArray built from scratch
+			if (this.supportingFragments.isEmpty()) {
+				this.activeStart = this.numSNP;
+				this.activeEnd = 0;
+			} else {
+				while (this.numStarting[this.activeStart - this.offset] == 0) {
+					this.activeStart++;
 				}
-			}
-			for (int i = this.numSNP - 1; i >= 0; i--) {
-				if (this.num0[i] != 0 && this.num1[i] != 0) {
-					// Last SNP site with a contribution from at least one fragment
-					this.activeEnd = i;
-					break;
+				while (this.numEnding[this.activeEnd - this.offset] == 0) {
+					this.activeEnd--;
 				}
 			}
 		}
@@ -245,35 +431,59 @@ public class FrequencyArray {
 	
 	/**
 	 * This method updates the frequency arrays by removing the given set of fragments.
-	 * @param fragments The set of fragments to remove.
+	 * @param fragments The set of fragment IDs to remove.
 	 */
-	public void removeFragment(Set<Fragment> fragments) {
-		for (Fragment f : fragments) {
+	public void removeFragment(IntSet fragments) {
+		for (int f : fragments.toArray()) {
 			this.removeFragment(f);
 		}
 	}
 	
+	/**
+	 * This method checks whether two given FrequencyArray's may be merged,
+	 * which is the case if they do not share any tags.
+	 * @param fa1 The first FrequencyArray.
+	 * @param fa2 The second FrequencyArray.
+	 * @return A boolean indicating whether a merge would be successful.
+	 */
+	public static boolean canMerge(FrequencyArray fa1, FrequencyArray fa2) {
+		return Collections.disjoint(fa2.tags, fa1.tags);
+	}
+	
 	/**
 	 * This method merges two given FrequencyArray's together if they do not share
 	 * any tags and returns a FrequencyArray with the result. Note that it assumes
-	 * at least one supporting fragment is shared.
+	 * at least one supporting fragment is shared. The result takes over the
+	 * frequency arrays, supporting fragments and tags of the larger of the two,
+	 * which is left empty, so the cost of a merge is proportional to the size of
+	 * the smaller one. The result also keeps the ID of the larger one.
 	 * @param fa1 The first FrequencyArray to merge.
 	 * @param fa2 The second FrequencyArray to merge.
 	 * @return The merged FrequencyArray, or null if the result was unsuccessful.
 	 */
 	public static FrequencyArray merge(FrequencyArray fa1, FrequencyArray fa2) {
-		// Number of SNP sites should be the same for either FrequencyArray
-		FrequencyArray mergedFA = new FrequencyArray(fa1.numSNP);
 		// If no commons tags are shared, then merge! Since this merge method is being called, there will be
 		// at least one supporting fragment shared.
-		// We have reason to suspect that fa2 will be the smaller of the two sets, so use as first argument!
-		if (Collections.disjoint(fa2.tags, fa1.tags)) {
-			// Add both sets of supporting fragments
-			mergedFA.addFragment(fa1.supportingFragments);
-			mergedFA.addFragment(fa2.supportingFragments);
-			// Add both sets of tags
-			mergedFA.tags.addAll(fa1.tags);
-			mergedFA.tags.addAll(fa2.tags);
+		if (canMerge(fa1, fa2)) {
+			FrequencyArray larger = fa1.numSupportingFrags() >= fa2.numSupportingFrags() ? fa1 : fa2;
+			FrequencyArray smaller = larger == fa1 ? fa2 : fa1;
+			// Take over the state of the larger FrequencyArray
+			FrequencyArray mergedFA = new FrequencyArray(larger.store);
+			mergedFA.activeStart = larger.activeStart;
+			mergedFA.activeEnd = larger.activeEnd;
+			mergedFA.offset = larger.offset;
+			mergedFA.num0 = larger.num0;
+			mergedFA.num1 = larger.num1;
+			mergedFA.numStarting = larger.numStarting;
+			mergedFA.numEnding = larger.numEnding;
+			mergedFA.supportingFragments = larger.supportingFragments;
+			mergedFA.tags = larger.tags;
+			mergedFA.sadf = larger.sadf;
+			mergedFA.id = larger.id;
+			mergedFA.mec = larger.mec;
+			larger.clear();
+			// Add the smaller FrequencyArray on top
+			mergedFA.add(smaller);
 			return mergedFA;
 		}
 		return null;
@@ -288,27 +498,85 @@ public class FrequencyArray {
 	 */
 	public boolean merge(FrequencyArray fa) {
 		// If no common tags are shared, and there is at least one common supporting fragment, then merge!
-		if (Collections.disjoint(this.tags, fa.tags) && !Collections.disjoint(this.supportingFragments, fa.supportingFragments)) {
-			this.addFragment(fa.supportingFragments);
-			this.tags.addAll(fa.tags);
+		if (canMerge(this, fa) && this.supportingFragments.intersects(fa.supportingFragments)) {
+			this.add(fa);
 			return true;
 		}
 		return false;
 	}
 	
+	/**
+	 * This method adds the supporting fragments and tags of the given
+	 * FrequencyArray to this one. Its frequencies are added element-wise over
+	 * its active region, after which the fragments supporting both are
+	 * subtracted once so that every fragment is only counted once.
+	 * @param fa The FrequencyArray to add.
+	 */
+	private void add(FrequencyArray fa) {
+		this.tags.addAll(fa.tags);
+		if (fa.supportingFragments.isEmpty()) {
+			return;
+		}
+		this.ensureWindow(fa.activeStart, fa.activeEnd);
+		for (int i = fa.activeStart; i <= fa.activeEnd; i++) {
+			this.removeStatistics(i - this.offset);
+			this.num0[i - this.offset] += fa.num0[i - fa.offset];
+			this.num1[i - this.offset] += fa.num1[i - fa.offset];
+			this.addStatistics(i - this.offset);
+			this.numStarting[i - this.offset] += fa.numStarting[i - fa.offset];
+			this.numEnding[i - this.offset] += fa.numEnding[i - fa.offset];
+		}
+		this.consensus = null;
+		this.activeStart = Math.min(this.activeStart, fa.activeStart);
+		this.activeEnd = Math.max(this.activeEnd, fa.activeEnd);
+		fa.supportingFragments.forEach(f -> {
+			if (!this.supportingFragments.add(f)) {
+				this.updateCounts(f, -this.store.frequency(f));
+				this.numStarting[this.store.startIndex(f) - this.offset]--;
+				this.numEnding[this.store.endIndex(f) - this.offset]--;
+			}
+		});
+	}
+	
+	/**
+	 * This method resets this FrequencyArray to an empty one without tags.
+	 */
+	private void clear() {
+		this.activeStart = this.numSNP;
+		this.activeEnd = 0;
+		this.offset = 0;
+		this.num0 = new int[0];
+		this.num1 = new int[0];
+		this.numStarting = new int[0];
+		this.numEnding = new int[0];
+		this.supportingFragments = new IntSet();
+		this.tags = new HashSet<Integer>();
+		this.sadf = 0;
+		this.mec = 0;
+		this.consensus = null;
+	}
+	
 	/**
 	 * This method calculates the consensus of the FragmentSet using the
-	 * majority element for each SNP site and breaking ties with zero.
+	 * majority element for each SNP site and breaking ties with zero. The
+	 * consensus is cached until the frequencies change.
 	 * 
-	 * @return The consensus fragment.
+	 * @return The consensus fragment; do not modify.
 	 */
 	public Fragment consensus() {
+		if (this.consensus == null) {
+			this.consensus = this.computeConsensus();
+		}
+		return this.consensus;
+	}
+	
+	private Fragment computeConsensus() {
 		if (this.supportingFragments.isEmpty()) {
 			return new Fragment(this.activeStart, "");
 		}
 		StringBuilder sb = new StringBuilder(this.activeEnd - this.activeStart + 1);
 		// Remember that active region is inclusive at end points
-		for (int i = this.activeStart; i <= this.activeEnd; i++) {
+		for (int i = this.activeStart - this.offset; i <= this.activeEnd - this.offset; i++) {
 			if (this.num0[i] > this.num1[i]) {
 				sb.append('0');
 			} else if (this.num0[i] < this.num1[i]){
@@ -321,6 +589,38 @@ public class FrequencyArray {
 		return new Fragment(this.activeStart, sb.toString());
 	}
 	
+	/**
+	 * This method writes the consensus into the given buffers as packed words
+	 * aligned to the SNP index, in the same way as Fragment. SNP sites without
+	 * a majority are left uncovered.
+	 * 
+	 * @param coverage The buffer of packed coverage words.
+	 * @param alleles The buffer of packed allele words.
+	 * @param offset The position in the buffers of word firstWord.
+	 * @param firstWord The SNP-aligned index of the first word to write.
+	 * @param numWords The number of words to write.
+	 */
+	public void consensusWords(long[] coverage, long[] alleles, int offset, int firstWord, int numWords) {
+		Arrays.fill(coverage, offset, offset + numWords, 0L);
+		Arrays.fill(alleles, offset, offset + numWords, 0L);
+		if (this.supportingFragments.isEmpty()) {
+			return;
+		}
+		int start = Math.max(this.activeStart, firstWord << 6);
+		int end = Math.min(this.activeEnd, ((firstWord + numWords) << 6) - 1);
+		for (int i = start; i <= end; i++) {
+			int num0 = this.num0[i - this.offset];
+			int num1 = this.num1[i - this.offset];
+			if (num0 != num1) {
+				int w = offset + (i >>> 6) - firstWord;
+				coverage[w] |= 1L << i;
+				if (num1 > num0) {
+					alleles[w] |= 1L << i;
+				}
+			}
+		}
+	}
+	
 	/**
 	 * This method calculates the consensus of the given set of fragments using
 	 * the majority element for each SNP site and breaking ties with zero.
@@ -349,13 +649,7 @@ public class FrequencyArray {
 		int[] num1 = new int[activeRegionLength];
 		// Populate frequency arrays
 		for (Fragment f : fragments) {
-			for (int i = 0; i < f.length(); i++) {
-				if (f.toString().charAt(i) == '0') {
-					num0[f.startIndex() - min + i] += f.frequency();
-				} else if (f.toString().charAt(i) == '1') {
-					num1[f.startIndex() - min + i] += f.frequency();
-				} // Else, f.toString().charAt(i) == '-', so do nothing!
-			}
+			updateCounts(num0, num1, min, f, f.frequency());
 		}
 		// Determine consensus
 		for (int i = 0; i < activeRegionLength; i++) {
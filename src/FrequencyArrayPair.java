@@ -76,6 +76,15 @@ public class FrequencyArrayPair {
 		return this.fa2;
 	}
 	
+	/**
+	 * This method checks whether either FrequencyArray of this pair has been
+	 * merged away since the pair was scored.
+	 * @return A boolean indicating whether this pair is out of date.
+	 */
+	public boolean isStale() {
+		return !this.fa1.isLive() || !this.fa2.isLive();
+	}
+	
 	/**
 	 * This method checks if this pair contains the given FrequencyArray.
 	 * @param fa The FrequencyArray to check if contained.
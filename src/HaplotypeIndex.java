@@ -0,0 +1,64 @@
+/**
+ * This class indexes the FrequencyArrays being merged by the fragments that
+ * support them. For every fragment it keeps the set of IDs of the
+ * FrequencyArrays containing it, so that the FrequencyArrays sharing fragments
+ * with a given one are found by visiting only its own fragments.
+ *
+ * @author Georgie Botev
+ */
+public class HaplotypeIndex {
+
+	// IDs of the FrequencyArrays containing each fragment, or null if none
+	private IntSet[] owners;
+
+	public HaplotypeIndex(int numFragments) {
+		this.owners = new IntSet[numFragments];
+	}
+
+	/**
+	 * This method adds the given FrequencyArray under every one of its
+	 * supporting fragments.
+	 *
+	 * @param fa The FrequencyArray to add, with its ID set.
+	 */
+	public void add(FrequencyArray fa) {
+		int id = fa.getId();
+		fa.getFrags().forEach(f -> {
+			if (this.owners[f] == null) {
+				this.owners[f] = new IntSet(4);
+			}
+			this.owners[f].add(id);
+		});
+	}
+
+	/**
+	 * This method records that the given FrequencyArray was merged into
+	 * another one. Only the fragments of the merged away FrequencyArray are
+	 * visited, so the result of the merge must have taken over the ID of the
+	 * other operand.
+	 *
+	 * @param merged The FrequencyArray that was merged away.
+	 * @param result The result of the merge.
+	 */
+	public void replace(FrequencyArray merged, FrequencyArray result) {
+		int oldId = merged.getId();
+		int newId = result.getId();
+		merged.getFrags().forEach(f -> {
+			this.owners[f].remove(oldId);
+			this.owners[f].add(newId);
+		});
+	}
+
+	/**
+	 * This method gets the IDs of the FrequencyArrays containing the given
+	 * fragment.
+	 *
+	 * @param f The ID of the fragment.
+	 * @return The set of FrequencyArray IDs, or null if there are none; do not
+	 *         modify.
+	 */
+	public IntSet owners(int f) {
+		return this.owners[f];
+	}
+
+}
@@ -0,0 +1,285 @@
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * This class implements a set of non-negative ints using open addressing with
+ * linear probing, so that sets of fragment IDs can be stored and compared
+ * without boxing.
+ *
+ * @author Georgie Botev
+ */
+public class IntSet {
+
+	private static final int EMPTY = -1;
+	private static final float LOAD_FACTOR = 0.5f;
+
+	private int[] table;
+	private int size;
+	private int mask;
+
+	public IntSet() {
+		this(8);
+	}
+
+	public IntSet(int expectedSize) {
+		int capacity = Integer.highestOneBit(Math.max(4, (int) (expectedSize / LOAD_FACTOR)) - 1) << 1;
+		this.table = new int[capacity];
+		Arrays.fill(this.table, EMPTY);
+		this.mask = capacity - 1;
+	}
+
+	public IntSet(IntSet s) {
+		this.table = s.table.clone();
+		this.size = s.size;
+		this.mask = s.mask;
+	}
+
+	private static int hash(int value) {
+		// Fibonacci hashing spreads dense IDs across the table
+		int h = value * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+
+	/**
+	 * This method gets the number of elements in the set.
+	 *
+	 * @return The number of elements.
+	 */
+	public int size() {
+		return this.size;
+	}
+
+	public boolean isEmpty() {
+		return this.size == 0;
+	}
+
+	/**
+	 * This method checks whether the given value is in the set.
+	 *
+	 * @param value The value to look up.
+	 * @return A boolean indicating whether the value is present.
+	 */
+	public boolean contains(int value) {
+		for (int i = hash(value) & this.mask;; i = (i + 1) & this.mask) {
+			int curr = this.table[i];
+			if (curr == value) {
+				return true;
+			}
+			if (curr == EMPTY) {
+				return false;
+			}
+		}
+	}
+
+	/**
+	 * This method adds the given value to the set.
+	 *
+	 * @param value The non-negative value to add.
+	 * @return A boolean indicating whether the set changed.
+	 */
+	public boolean add(int value) {
+		for (int i = hash(value) & this.mask;; i = (i + 1) & this.mask) {
+			int curr = this.table[i];
+			if (curr == value) {
+				return false;
+			}
+			if (curr == EMPTY) {
+				this.table[i] = value;
+				if (++this.size > this.table.length * LOAD_FACTOR) {
+					this.resize(this.table.length << 1);
+				}
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * This method adds every value of the given set to this set.
+	 *
+	 * @param s The set of values to add.
+	 */
+	public void addAll(IntSet s) {
+		for (int value : s.table) {
+			if (value != EMPTY) {
+				this.add(value);
+			}
+		}
+	}
+
+	/**
+	 * This method removes the given value from the set.
+	 *
+	 * @param value The value to remove.
+	 * @return A boolean indicating whether the set changed.
+	 */
+	public boolean remove(int value) {
+		for (int i = hash(value) & this.mask;; i = (i + 1) & this.mask) {
+			int curr = this.table[i];
+			if (curr == EMPTY) {
+				return false;
+			}
+			if (curr == value) {
+				// Shift back the following entries of the cluster so that
+				// lookups never stop early at the vacated slot
+				int gap = i;
+				for (int j = (i + 1) & this.mask; this.table[j] != EMPTY; j = (j + 1) & this.mask) {
+					int home = hash(this.table[j]) & this.mask;
+					if (((j - home) & this.mask) >= ((j - gap) & this.mask)) {
+						this.table[gap] = this.table[j];
+						gap = j;
+					}
+				}
+				this.table[gap] = EMPTY;
+				this.size--;
+				return true;
+			}
+		}
+	}
+
+	public void clear() {
+		Arrays.fill(this.table, EMPTY);
+		this.size = 0;
+	}
+
+	private void resize(int capacity) {
+		int[] old = this.table;
+		this.table = new int[capacity];
+		Arrays.fill(this.table, EMPTY);
+		this.mask = capacity - 1;
+		for (int value : old) {
+			if (value != EMPTY) {
+				for (int i = hash(value) & this.mask;; i = (i + 1) & this.mask) {
+					if (this.table[i] == EMPTY) {
+						this.table[i] = value;
+						break;
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * This method calls the given action once for every value in the set.
+	 *
+	 * @param action The action to perform.
+	 */
+	public void forEach(IntConsumer action) {
+		for (int value : this.table) {
+			if (value != EMPTY) {
+				action.accept(value);
+			}
+		}
+	}
+
+	/**
+	 * This method copies the values of the set into a new array in no
+	 * particular order.
+	 *
+	 * @return The array of values.
+	 */
+	public int[] toArray() {
+		int[] result = new int[this.size];
+		int j = 0;
+		for (int value : this.table) {
+			if (value != EMPTY) {
+				result[j++] = value;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * This method copies the values of the set into the given array in no
+	 * particular order.
+	 *
+	 * @param dest The array to copy into, with room for size() values.
+	 * @param offset The position in the array of the first value.
+	 * @return The number of values copied.
+	 */
+	public int copyTo(int[] dest, int offset) {
+		int j = offset;
+		for (int value : this.table) {
+			if (value != EMPTY) {
+				dest[j++] = value;
+			}
+		}
+		return j - offset;
+	}
+
+	/**
+	 * This method counts the values shared with the given set, probing the
+	 * larger set with the values of the smaller one.
+	 *
+	 * @param s The other set.
+	 * @return The size of the intersection.
+	 */
+	public int intersectionSize(IntSet s) {
+		IntSet small = this.size <= s.size ? this : s;
+		IntSet large = small == this ? s : this;
+		int count = 0;
+		for (int value : small.table) {
+			if (value != EMPTY && large.contains(value)) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * This method checks whether the two sets share at least one value.
+	 *
+	 * @param s The other set.
+	 * @return A boolean indicating whether the sets intersect.
+	 */
+	public boolean intersects(IntSet s) {
+		IntSet small = this.size <= s.size ? this : s;
+		IntSet large = small == this ? s : this;
+		for (int value : small.table) {
+			if (value != EMPTY && large.contains(value)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		// Check if being compared to itself
+		if (this == o) {
+			return true;
+		}
+		// Check if object is null
+		if (o == null) {
+			return false;
+		}
+		// Check type of object
+		if (getClass() != o.getClass()) {
+			return false;
+		}
+		// Typecast is safe to do now
+		IntSet s = (IntSet) o;
+		// Check if both sets hold the same values
+		if (this.size != s.size) {
+			return false;
+		}
+		for (int value : this.table) {
+			if (value != EMPTY && !s.contains(value)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public int hashCode() {
+		// Sum of hashes is independent of the table layout
+		int h = 0;
+		for (int value : this.table) {
+			if (value != EMPTY) {
+				h += hash(value);
+			}
+		}
+		return h;
+	}
+
+}
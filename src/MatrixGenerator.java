@@ -0,0 +1,418 @@
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * This class simulates a fragment matrix in short format together with the
+ * haplotypes it was sampled from, with the same knobs as the simulation
+ * scripts. Haplotypes are drawn as in scripts/simulator.py: for k = 2 the
+ * second haplotype is the complement of the first, and otherwise every SNP
+ * site has at least one 0 and one 1. SNP sites are spaced by geometric gaps
+ * of the given mean, fragments start uniformly along the genome with normally
+ * distributed lengths in base pairs, and every allele is flipped at the error
+ * rate and, except at the ends, replaced by a gap at the gap rate. Fragments
+ * covering fewer than two SNP sites are dropped.
+ *
+ * The fragments are generated in chunks of consecutive stretches of the
+ * genome, each with its own random generator split off in order, so the
+ * output only depends on the seed and not on the number of threads. Chunks
+ * are generated in parallel and written in order, and the fragments within a
+ * chunk are sorted, so the matrix is sorted by starting index.
+ *
+ * Usage: MatrixGenerator [matrix.txt] [haplotypes.txt] [k] [width] [height]
+ * [seed] [--error-rate=0.02] [--gap-rate=0] [--fragment-length=mean[,sd[,min[,max]]]]
+ * [--snp-spacing=1]
+ *
+ * @author Georgie Botev
+ */
+public class MatrixGenerator {
+
+	// Number of fragments generated by a single task
+	private static final int CHUNK_SIZE = 1 << 16;
+	// Size of the output buffer of the haplotypes
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	private int k;
+	private int width;
+	private long height;
+	private long seed;
+	private double errorRate = 0.02;
+	private double gapRate = 0;
+	private double fragmentLengthMean = 10;
+	private double fragmentLengthSd = 0;
+	private int fragmentLengthMin = 10;
+	private int fragmentLengthMax = 10;
+	private double snpSpacing = 1;
+	// Allele of haplotype h at SNP site i is bit i of haplotypes[h]
+	private long[][] haplotypes;
+	// Position of every SNP site in base pairs
+	private long[] positions;
+	private long numDropped;
+
+	public MatrixGenerator(int k, int width, long height, long seed) {
+		if (k < 2 || width < 2 || height < 0) {
+			throw new IllegalArgumentException("There must be at least two haplotypes and two SNP sites.");
+		}
+		this.k = k;
+		this.width = width;
+		this.height = height;
+		this.seed = seed;
+	}
+
+	public static void main(String[] args) {
+		try {
+			// Extract command-line arguments
+			String matrixFile = args[0];
+			String haplotypeFile = args[1];
+			MatrixGenerator generator = new MatrixGenerator(Integer.parseInt(args[2]), Integer.parseInt(args[3]),
+					Long.parseLong(args[4]), Long.parseLong(args[5]));
+			for (String option : Arrays.copyOfRange(args, 6, args.length)) {
+				String[] parts = option.split("=", 2);
+				switch (parts[0]) {
+				case "--error-rate":
+					generator.setErrorRate(Double.parseDouble(parts[1]));
+					break;
+				case "--gap-rate":
+					generator.setGapRate(Double.parseDouble(parts[1]));
+					break;
+				case "--fragment-length":
+					String[] values = parts[1].split(",");
+					double mean = Double.parseDouble(values[0]);
+					double sd = values.length > 1 ? Double.parseDouble(values[1]) : 0;
+					int min = values.length > 2 ? Integer.parseInt(values[2]) : (int) Math.round(mean);
+					int max = values.length > 3 ? Integer.parseInt(values[3]) : (int) Math.round(mean);
+					generator.setFragmentLength(mean, sd, min, max);
+					break;
+				case "--snp-spacing":
+					generator.setSnpSpacing(Double.parseDouble(parts[1]));
+					break;
+				default:
+					throw new IllegalArgumentException(String.format("Unknown option %s.", option));
+				}
+			}
+			long startTime = System.nanoTime();
+			long numFragments = generator.write(matrixFile, haplotypeFile);
+			System.err.printf("Wrote %d fragments (%d dropped) in %d ms\n", numFragments, generator.numDropped(),
+					(System.nanoTime() - startTime) / 1000000);
+		} catch (Exception e) {
+			System.err.println("Command-line arguments were not entered properly or an uncaught exception occured.");
+			e.printStackTrace(System.err);
+		}
+	}
+
+	/**
+	 * This method sets the probability that an allele of a fragment is flipped.
+	 *
+	 * @param errorRate The error rate, 0.02 by default.
+	 */
+	public void setErrorRate(double errorRate) {
+		this.errorRate = errorRate;
+	}
+
+	/**
+	 * This method sets the probability that an allele inside a fragment is
+	 * replaced by a gap.
+	 *
+	 * @param gapRate The gap rate, 0 by default.
+	 */
+	public void setGapRate(double gapRate) {
+		this.gapRate = gapRate;
+	}
+
+	/**
+	 * This method sets the distribution of fragment lengths in base pairs.
+	 *
+	 * @param mean The mean of the normal distribution, 10 by default.
+	 * @param sd The standard deviation, 0 by default.
+	 * @param min The shortest length, 10 by default.
+	 * @param max The longest length, 10 by default.
+	 */
+	public void setFragmentLength(double mean, double sd, int min, int max) {
+		if (min < 1 || min > max) {
+			throw new IllegalArgumentException("Fragment lengths must be positive and min must not exceed max.");
+		}
+		this.fragmentLengthMean = mean;
+		this.fragmentLengthSd = sd;
+		this.fragmentLengthMin = min;
+		this.fragmentLengthMax = max;
+	}
+
+	/**
+	 * This method sets the mean number of base pairs between SNP sites. With a
+	 * spacing of 1 every base pair is a SNP site, so fragment lengths are in
+	 * SNP sites.
+	 *
+	 * @param snpSpacing The mean spacing, 1 by default.
+	 */
+	public void setSnpSpacing(double snpSpacing) {
+		if (snpSpacing < 1) {
+			throw new IllegalArgumentException("The SNP spacing must be at least 1.");
+		}
+		this.snpSpacing = snpSpacing;
+	}
+
+	/**
+	 * This method gets the number of fragments dropped by the last call to
+	 * write or store for covering fewer than two SNP sites.
+	 *
+	 * @return The number of dropped fragments.
+	 */
+	public long numDropped() {
+		return this.numDropped;
+	}
+
+	/**
+	 * This class receives the fragments of a chunk in order.
+	 */
+	private interface Sink {
+		void accept(int startIndex, byte[] pattern, int length);
+	}
+
+	/**
+	 * This method draws the haplotypes and the SNP positions, which every
+	 * chunk shares.
+	 */
+	private void drawHaplotypes(SplittableRandom random) {
+		int numWords = (this.width + 63) >>> 6;
+		this.haplotypes = new long[this.k][numWords];
+		for (int i = 0; i < this.width; i++) {
+			if (this.k == 2) {
+				if (random.nextBoolean()) {
+					this.haplotypes[0][i >>> 6] |= 1L << i;
+				} else {
+					this.haplotypes[1][i >>> 6] |= 1L << i;
+				}
+				continue;
+			}
+			// Random alleles, then a 0 and a 1 at two distinct haplotypes
+			int zero = random.nextInt(this.k);
+			int one = random.nextInt(this.k - 1);
+			one += one >= zero ? 1 : 0;
+			for (int h = 0; h < this.k; h++) {
+				if (h == one || (h != zero && random.nextBoolean())) {
+					this.haplotypes[h][i >>> 6] |= 1L << i;
+				}
+			}
+		}
+		this.positions = new long[this.width];
+		double p = 1.0 / this.snpSpacing;
+		for (int i = 1; i < this.width; i++) {
+			long gap = p >= 1 ? 1 : 1 + (long) Math.floor(Math.log(1 - random.nextDouble()) / Math.log(1 - p));
+			this.positions[i] = this.positions[i - 1] + gap;
+		}
+	}
+
+	/**
+	 * This method generates the fragments of one chunk, which start within the
+	 * given range of base pairs, in order of starting index.
+	 *
+	 * @return The number of fragments dropped.
+	 */
+	private long generateChunk(SplittableRandom random, long count, long from, long to, Sink sink) {
+		long[] starts = new long[(int) count];
+		for (int i = 0; i < starts.length; i++) {
+			starts[i] = from + (long) (random.nextDouble() * (to - from));
+		}
+		Arrays.sort(starts);
+		byte[] pattern = new byte[64];
+		long numDropped = 0;
+		for (long start : starts) {
+			long length = Math.round(this.fragmentLengthMean + this.fragmentLengthSd * gaussian(random));
+			length = Math.max(this.fragmentLengthMin, Math.min(this.fragmentLengthMax, length));
+			int startIndex = lowerBound(this.positions, start);
+			int endIndex = lowerBound(this.positions, start + length);
+			int numSites = endIndex - startIndex;
+			long[] haplotype = this.haplotypes[random.nextInt(this.k)];
+			if (numSites < 2) {
+				numDropped++;
+				continue;
+			}
+			if (pattern.length < numSites) {
+				pattern = new byte[Math.max(numSites, pattern.length * 2)];
+			}
+			for (int i = 0; i < numSites; i++) {
+				int snp = startIndex + i;
+				boolean allele = (haplotype[snp >>> 6] & (1L << snp)) != 0;
+				if (random.nextDouble() < this.errorRate) {
+					allele = !allele;
+				}
+				boolean gap = i > 0 && i < numSites - 1 && random.nextDouble() < this.gapRate;
+				pattern[i] = (byte) (gap ? '-' : allele ? '1' : '0');
+			}
+			sink.accept(startIndex, pattern, numSites);
+		}
+		return numDropped;
+	}
+
+	private static double gaussian(SplittableRandom random) {
+		// Box-Muller transform
+		return Math.sqrt(-2 * Math.log(1 - random.nextDouble())) * Math.cos(2 * Math.PI * random.nextDouble());
+	}
+
+	private static int lowerBound(long[] values, long key) {
+		int index = Arrays.binarySearch(values, key);
+		return index >= 0 ? index : -index - 1;
+	}
+
+	/**
+	 * This method splits the genome into chunks and creates the random
+	 * generator of every chunk in order.
+	 */
+	private List<SplittableRandom> chunks() {
+		SplittableRandom random = new SplittableRandom(this.seed);
+		this.drawHaplotypes(random);
+		this.numDropped = 0;
+		List<SplittableRandom> chunks = new ArrayList<SplittableRandom>();
+		for (long c = 0; c * CHUNK_SIZE < this.height; c++) {
+			chunks.add(random.split());
+		}
+		return chunks;
+	}
+
+	private long chunkCount(int c) {
+		return Math.min(CHUNK_SIZE, this.height - (long) c * CHUNK_SIZE);
+	}
+
+	private long chunkStart(int c) {
+		// The genome ends one base pair after the last SNP site
+		long genomeLength = this.positions[this.width - 1] + 1;
+		// Give every chunk a stretch in proportion to its number of fragments,
+		// so that the last, smaller chunk keeps the same coverage
+		long numBefore = Math.min((long) c * CHUNK_SIZE, this.height);
+		return (long) (genomeLength * ((double) numBefore / this.height));
+	}
+
+	/**
+	 * This method writes the fragment matrix in short format, sorted by
+	 * starting index, and the haplotypes, one per line, to the given files.
+	 *
+	 * @param matrixFile The path of the fragment matrix.
+	 * @param haplotypeFile The path of the haplotypes.
+	 * @return The number of fragments written.
+	 * @throws IOException If either file could not be written.
+	 */
+	public long write(String matrixFile, String haplotypeFile) throws IOException {
+		List<SplittableRandom> chunks = this.chunks();
+		int numChunks = chunks.size();
+		int parallelism = Runtime.getRuntime().availableProcessors();
+		ExecutorService executorService = Executors.newFixedThreadPool(parallelism);
+		long numFragments = 0;
+		try (OutputStream out = new FileOutputStream(matrixFile)) {
+			// Keep a bounded number of chunks in flight and write them in order
+			List<Future<ByteBuffer>> futures = new ArrayList<Future<ByteBuffer>>();
+			int numSubmitted = 0;
+			for (int c = 0; c < numChunks; c++) {
+				while (numSubmitted < numChunks && numSubmitted < c + 2 * parallelism) {
+					int chunk = numSubmitted++;
+					futures.add(executorService.submit(() -> {
+						ByteBuffer buffer = new ByteBuffer();
+						buffer.numDropped = this.generateChunk(chunks.get(chunk), this.chunkCount(chunk),
+								this.chunkStart(chunk), this.chunkStart(chunk + 1),
+								buffer::append);
+						return buffer;
+					}));
+				}
+				ByteBuffer buffer = futures.get(c).get();
+				futures.set(c, null);
+				out.write(buffer.bytes, 0, buffer.size);
+				numFragments += buffer.numFragments;
+				this.numDropped += buffer.numDropped;
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException(String.format("Interrupted while writing %s.", matrixFile), e);
+		} catch (ExecutionException e) {
+			throw new IOException(String.format("Unable to generate %s.", matrixFile), e.getCause());
+		} finally {
+			executorService.shutdownNow();
+		}
+		this.writeHaplotypes(haplotypeFile);
+		return numFragments;
+	}
+
+	private void writeHaplotypes(String haplotypeFile) throws IOException {
+		try (OutputStream out = new BufferedOutputStream(new FileOutputStream(haplotypeFile), BUFFER_SIZE)) {
+			for (long[] haplotype : this.haplotypes) {
+				for (int i = 0; i < this.width; i++) {
+					out.write((haplotype[i >>> 6] & (1L << i)) != 0 ? '1' : '0');
+				}
+				out.write('\n');
+			}
+		}
+	}
+
+	/**
+	 * This method generates the fragment matrix in memory, merging duplicate
+	 * fragments, without writing it.
+	 *
+	 * @return The store of the distinct fragments.
+	 */
+	public FragmentStore store() {
+		List<SplittableRandom> chunks = this.chunks();
+		Map<Fragment, Fragment> fragments = new HashMap<Fragment, Fragment>();
+		for (int c = 0; c < chunks.size(); c++) {
+			this.numDropped += this.generateChunk(chunks.get(c), this.chunkCount(c),
+					this.chunkStart(c), this.chunkStart(c + 1),
+					(startIndex, pattern, length) -> {
+						Fragment f = new Fragment(startIndex, new String(pattern, 0, length, StandardCharsets.US_ASCII));
+						Fragment existing = fragments.putIfAbsent(f, f);
+						if (existing != null) {
+							existing.incrementFrequency();
+						}
+					});
+		}
+		return FragmentStore.of(fragments.values());
+	}
+
+	/**
+	 * This method gets the allele of the given haplotype at the given SNP site
+	 * of the last matrix generated.
+	 *
+	 * @param h The index of the haplotype.
+	 * @param snp The SNP site.
+	 * @return 0 or 1.
+	 */
+	public int allele(int h, int snp) {
+		return (this.haplotypes[h][snp >>> 6] & (1L << snp)) != 0 ? 1 : 0;
+	}
+
+	/**
+	 * This class collects the lines of the fragments of a chunk.
+	 */
+	private static class ByteBuffer {
+
+		private byte[] bytes = new byte[1 << 12];
+		private int size;
+		private long numFragments;
+		private long numDropped;
+
+		void append(int startIndex, byte[] pattern, int length) {
+			// At most 10 digits, a tab, the pattern and a newline
+			if (this.size + length + 12 > this.bytes.length) {
+				this.bytes = Arrays.copyOf(this.bytes, Math.max(this.bytes.length * 2, this.size + length + 12));
+			}
+			String start = Integer.toString(startIndex);
+			for (int i = 0; i < start.length(); i++) {
+				this.bytes[this.size++] = (byte) start.charAt(i);
+			}
+			this.bytes[this.size++] = '\t';
+			System.arraycopy(pattern, 0, this.bytes, this.size, length);
+			this.size += length;
+			this.bytes[this.size++] = '\n';
+			this.numFragments++;
+		}
+	}
+
+}
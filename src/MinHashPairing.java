@@ -0,0 +1,187 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * This class finds the pairs of FrequencyArrays whose supporting fragments are
+ * likely to have a Jaccard index above a threshold without comparing every
+ * pair. Every FrequencyArray gets a MinHash sketch of its supporting
+ * fragments, which is split into bands; two FrequencyArrays become a candidate
+ * pair if all values of any band agree. The number of bands and rows per band
+ * are chosen so that pairs at the threshold become candidates with at least
+ * the target probability, while as few pairs below it as possible do.
+ *
+ * @author Georgie Botev
+ */
+public class MinHashPairing {
+
+	private static final int NUM_HASHES = 128;
+	// Probability with which a pair at the threshold becomes a candidate
+	private static final double TARGET_RECALL = 0.95;
+	// Fixed seed so that the candidates are the same on every run
+	private static final long SEED = 0x5DEECE66DL;
+
+	private int numBands;
+	private int numRows;
+	private long[] seeds;
+
+	public MinHashPairing(double threshold) {
+		if (threshold <= 0 || threshold > 1) {
+			throw new IllegalArgumentException("The Jaccard threshold must be in (0, 1].");
+		}
+		// The candidate probability 1 - (1 - J^r)^b falls with the number of
+		// rows r, as does the number of candidates below the threshold, so
+		// pick the most rows that still reach the target recall at the
+		// threshold; one row per band is the most sensitive choice
+		this.numBands = NUM_HASHES;
+		this.numRows = 1;
+		for (int rows = 2; rows <= NUM_HASHES; rows++) {
+			if (candidateProbability(threshold, NUM_HASHES / rows, rows) < TARGET_RECALL) {
+				break;
+			}
+			this.numBands = NUM_HASHES / rows;
+			this.numRows = rows;
+		}
+		Random random = new Random(SEED);
+		this.seeds = new long[this.numBands * this.numRows];
+		for (int i = 0; i < this.seeds.length; i++) {
+			this.seeds[i] = random.nextLong();
+		}
+	}
+
+	public int numBands() {
+		return this.numBands;
+	}
+
+	public int numRows() {
+		return this.numRows;
+	}
+
+	/**
+	 * This method gets the probability that a pair with the given Jaccard
+	 * index becomes a candidate.
+	 *
+	 * @param jaccard The Jaccard index of the pair.
+	 * @return The probability 1 - (1 - J^r)^b.
+	 */
+	public double candidateProbability(double jaccard) {
+		return candidateProbability(jaccard, this.numBands, this.numRows);
+	}
+
+	private static double candidateProbability(double jaccard, int bands, int rows) {
+		return 1 - Math.pow(1 - Math.pow(jaccard, rows), bands);
+	}
+
+	private static long mix(long x) {
+		// Finalizer of MurmurHash3
+		x ^= x >>> 33;
+		x *= 0xFF51AFD7ED558CCDL;
+		x ^= x >>> 33;
+		x *= 0xC4CEB9FE1A85EC53L;
+		x ^= x >>> 33;
+		return x;
+	}
+
+	/**
+	 * This method computes the MinHash sketch of the given set of fragments.
+	 *
+	 * @param fragments The set of fragment IDs.
+	 * @return The minimum of every hash function over the set.
+	 */
+	public long[] sketch(IntSet fragments) {
+		long[] sketch = new long[this.seeds.length];
+		Arrays.fill(sketch, Long.MAX_VALUE);
+		fragments.forEach(f -> {
+			for (int i = 0; i < this.seeds.length; i++) {
+				long h = mix(f ^ this.seeds[i]);
+				if (h < sketch[i]) {
+					sketch[i] = h;
+				}
+			}
+		});
+		return sketch;
+	}
+
+	/**
+	 * This method finds the candidate pairs among the given FrequencyArrays.
+	 *
+	 * @param fas The FrequencyArrays, with their IDs set.
+	 * @return The candidate pairs, each packed as the smaller ID in the upper
+	 *         and the larger ID in the lower 32 bits, in increasing order.
+	 */
+	public long[] candidates(List<FrequencyArray> fas) {
+		List<long[]> sketches = new ArrayList<long[]>(fas.size());
+		for (FrequencyArray fa : fas) {
+			sketches.add(fa.getFrags().isEmpty() ? null : this.sketch(fa.getFrags()));
+		}
+		long[] keys = new long[fas.size()];
+		long[] order = new long[fas.size()];
+		// Distinct candidates of the bands so far, and the pairs of the current one
+		long[] candidates = new long[0];
+		long[] pairs = new long[16];
+		for (int band = 0; band < this.numBands; band++) {
+			int numPairs = 0;
+			// Bucket the FrequencyArrays by the values of the band, sorting
+			// their positions by the upper half of the key
+			int numKeys = 0;
+			for (int i = 0; i < fas.size(); i++) {
+				long[] sketch = sketches.get(i);
+				if (sketch == null) {
+					continue;
+				}
+				long key = band;
+				for (int row = band * this.numRows; row < (band + 1) * this.numRows; row++) {
+					key = mix(key * 31 + sketch[row]);
+				}
+				keys[i] = key;
+				order[numKeys++] = (key >>> 32) << 32 | i;
+			}
+			Arrays.sort(order, 0, numKeys);
+			// Every pair sharing the whole key is a candidate
+			for (int from = 0, to; from < numKeys; from = to) {
+				for (to = from + 1; to < numKeys && (order[to] >>> 32) == (order[from] >>> 32); to++) {
+				}
+				for (int a = from; a < to; a++) {
+					for (int b = a + 1; b < to; b++) {
+						int i1 = (int) order[a];
+						int i2 = (int) order[b];
+						if (keys[i1] == keys[i2]) {
+							if (numPairs == pairs.length) {
+								pairs = Arrays.copyOf(pairs, numPairs * 2);
+							}
+							int id1 = fas.get(i1).getId();
+							int id2 = fas.get(i2).getId();
+							pairs[numPairs++] = (long) Math.min(id1, id2) << 32 | Math.max(id1, id2);
+						}
+					}
+				}
+			}
+			// Pairs found in several bands are kept once
+			Arrays.sort(pairs, 0, numPairs);
+			candidates = union(candidates, pairs, numPairs);
+		}
+		return candidates;
+	}
+
+	/**
+	 * This method merges the distinct values of two sorted arrays.
+	 *
+	 * @param a The first sorted array, without duplicates.
+	 * @param b The second sorted array, which may hold duplicates.
+	 * @param bSize The number of values of the second array.
+	 * @return The sorted distinct values of both arrays.
+	 */
+	private static long[] union(long[] a, long[] b, int bSize) {
+		long[] result = new long[a.length + bSize];
+		int size = 0;
+		for (int i = 0, j = 0; i < a.length || j < bSize;) {
+			long value = j == bSize || (i < a.length && a[i] <= b[j]) ? a[i++] : b[j++];
+			if (size == 0 || result[size - 1] != value) {
+				result[size++] = value;
+			}
+		}
+		return size == result.length ? result : Arrays.copyOf(result, size);
+	}
+
+}
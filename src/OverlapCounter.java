@@ -0,0 +1,134 @@
+import java.util.Arrays;
+
+/**
+ * This class finds the FrequencyArrays sharing supporting fragments with a
+ * given one through a HaplotypeIndex and counts the shared fragments. Buffers
+ * are reused across calls, so an instance must not be shared between threads.
+ *
+ * @author Georgie Botev
+ */
+public class OverlapCounter {
+
+	private HaplotypeIndex index;
+	// Intersection size with every FrequencyArray ID seen by the last call
+	private int[] counts = new int[0];
+	private int[] overlaps = new int[0];
+	private int numOverlaps;
+	// Number of fragments looked up by the last call
+	private int numFragments;
+
+	public OverlapCounter(HaplotypeIndex index) {
+		this.index = index;
+	}
+
+	/**
+	 * This method finds every other FrequencyArray sharing at least one
+	 * supporting fragment with the given one and counts the shared fragments.
+	 * The results are sorted by ID.
+	 *
+	 * @param fa The FrequencyArray whose fragments to look up.
+	 * @param minId Only FrequencyArrays with an ID of at least minId are counted.
+	 * @return The number of overlapping FrequencyArrays.
+	 */
+	public int count(FrequencyArray fa, int minId) {
+		this.reset();
+		int id = fa.getId();
+		fa.getFrags().forEach(f -> this.visit(f, id, id, minId));
+		Arrays.sort(this.overlaps, 0, this.numOverlaps);
+		return this.numOverlaps;
+	}
+
+	/**
+	 * This method counts the shared fragments of every other FrequencyArray
+	 * with the merge of the two given ones, without merging them. The results
+	 * are sorted by ID.
+	 *
+	 * @param fa1 The first FrequencyArray of the merge.
+	 * @param fa2 The second FrequencyArray of the merge.
+	 * @return The number of overlapping FrequencyArrays.
+	 */
+	public int count(FrequencyArray fa1, FrequencyArray fa2) {
+		this.reset();
+		int id1 = fa1.getId();
+		int id2 = fa2.getId();
+		IntSet frags1 = fa1.getFrags();
+		frags1.forEach(f -> this.visit(f, id1, id2, 0));
+		fa2.getFrags().forEach(f -> {
+			if (!frags1.contains(f)) {
+				this.visit(f, id1, id2, 0);
+			}
+		});
+		Arrays.sort(this.overlaps, 0, this.numOverlaps);
+		return this.numOverlaps;
+	}
+
+	private void reset() {
+		// Reset the counts of the previous call
+		for (int i = 0; i < this.numOverlaps; i++) {
+			this.counts[this.overlaps[i]] = 0;
+		}
+		this.numOverlaps = 0;
+		this.numFragments = 0;
+	}
+
+	private void visit(int f, int id1, int id2, int minId) {
+		this.numFragments++;
+		this.index.owners(f).forEach(other -> {
+			if (other != id1 && other != id2 && other >= minId) {
+				if (other >= this.counts.length) {
+					this.counts = Arrays.copyOf(this.counts, Math.max(other + 1, this.counts.length * 2));
+				}
+				if (this.counts[other]++ == 0) {
+					if (this.numOverlaps == this.overlaps.length) {
+						this.overlaps = Arrays.copyOf(this.overlaps, Math.max(8, this.numOverlaps * 2));
+					}
+					this.overlaps[this.numOverlaps++] = other;
+				}
+			}
+		});
+	}
+
+	/**
+	 * This method gets the number of FrequencyArrays found by the last call to
+	 * count.
+	 *
+	 * @return The number of overlapping FrequencyArrays.
+	 */
+	public int numOverlaps() {
+		return this.numOverlaps;
+	}
+
+	/**
+	 * This method gets the number of distinct fragments looked up by the last
+	 * call to count, which is the size of the merge when counting for two
+	 * FrequencyArrays.
+	 *
+	 * @return The number of fragments.
+	 */
+	public int numFragments() {
+		return this.numFragments;
+	}
+
+	/**
+	 * This method gets the ID of the i-th FrequencyArray found by the last
+	 * call to count.
+	 *
+	 * @param i The position of the FrequencyArray among the overlaps.
+	 * @return The ID of the FrequencyArray.
+	 */
+	public int overlapId(int i) {
+		return this.overlaps[i];
+	}
+
+	/**
+	 * This method gets the number of fragments shared with the i-th
+	 * FrequencyArray found by the last call to count.
+	 *
+	 * @param i The position of the FrequencyArray among the overlaps.
+	 * @return The size of the intersection.
+	 */
+	public int overlapSize(int i) {
+		return this.counts[this.overlaps[i]];
+	}
+
+}
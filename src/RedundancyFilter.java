@@ -0,0 +1,187 @@
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * This class finds the FrequencyArrays whose consensus is redundant, in the
+ * same sense as FrequencyArray.combine: the consensus lies within the active
+ * region of a longer one, or of an earlier one with the same active region,
+ * and agrees with it wherever both have a majority. Only FrequencyArrays with
+ * overlapping active regions can contain each other, so they are swept in
+ * order of their active regions and split into groups of overlapping ones,
+ * which are scanned independently on the common fork-join pool. Like the
+ * original removal, which was by equality, every FrequencyArray with the same
+ * supporting fragments as a redundant one is redundant as well.
+ *
+ * @author Georgie Botev
+ */
+public class RedundancyFilter {
+
+	private List<FrequencyArray> fas;
+	// Positions of the non-empty FrequencyArrays by increasing start, then
+	// decreasing end, then position
+	private int[] order;
+	// Group g covers order[groupStarts[g] .. groupStarts[g + 1])
+	private int[] groupStarts;
+	private int numGroups;
+	// Packed consensus of every FrequencyArray from the word of its start
+	private long[][] coverage;
+	private long[][] alleles;
+	private boolean[] redundant;
+
+	public RedundancyFilter(List<FrequencyArray> fas) {
+		this.fas = fas;
+		int size = fas.size();
+		this.coverage = new long[size][];
+		this.alleles = new long[size][];
+		this.redundant = new boolean[size];
+		// Empty FrequencyArrays are contained in any other one
+		int numNonEmpty = 0;
+		int firstEmpty = -1;
+		for (int i = 0; i < size; i++) {
+			if (fas.get(i).numSupportingFrags() > 0) {
+				numNonEmpty++;
+			} else if (firstEmpty < 0) {
+				firstEmpty = i;
+			} else {
+				this.redundant[i] = true;
+			}
+		}
+		if (firstEmpty >= 0 && numNonEmpty > 0) {
+			this.redundant[firstEmpty] = true;
+		}
+		Integer[] sorted = new Integer[numNonEmpty];
+		for (int i = 0, j = 0; i < size; i++) {
+			if (fas.get(i).numSupportingFrags() > 0) {
+				sorted[j++] = i;
+			}
+		}
+		// Sorting is stable, so ties keep their positions
+		Arrays.sort(sorted, (i, j) -> {
+			FrequencyArray fa1 = fas.get(i);
+			FrequencyArray fa2 = fas.get(j);
+			if (fa1.activeStart() != fa2.activeStart()) {
+				return Integer.compare(fa1.activeStart(), fa2.activeStart());
+			}
+			return -Integer.compare(fa1.activeEnd(), fa2.activeEnd());
+		});
+		// Sweep the active regions and start a new group at every gap
+		this.order = new int[numNonEmpty];
+		this.groupStarts = new int[numNonEmpty + 1];
+		int groupEnd = -1;
+		for (int p = 0; p < numNonEmpty; p++) {
+			this.order[p] = sorted[p];
+			FrequencyArray fa = fas.get(sorted[p]);
+			if (fa.activeStart() > groupEnd) {
+				this.groupStarts[this.numGroups++] = p;
+			}
+			groupEnd = Math.max(groupEnd, fa.activeEnd());
+		}
+		this.groupStarts[this.numGroups] = numNonEmpty;
+	}
+
+	/**
+	 * This method finds the redundant FrequencyArrays. A FrequencyArray is
+	 * redundant if any other one makes it redundant, even if that one is
+	 * redundant itself, or if it has the same fragments as a redundant one,
+	 * exactly as when combining every pair and removing by equality.
+	 *
+	 * @return For every position of the list, whether that FrequencyArray is
+	 *         redundant.
+	 */
+	public boolean[] findRedundant() {
+		if (this.numGroups > 0) {
+			ForkJoinPool.commonPool().invoke(new GroupTask(0, this.numGroups));
+		}
+		Set<IntSet> redundantFrags = new HashSet<IntSet>();
+		for (int i = 0; i < this.redundant.length; i++) {
+			if (this.redundant[i]) {
+				redundantFrags.add(this.fas.get(i).getFrags());
+			}
+		}
+		if (!redundantFrags.isEmpty()) {
+			for (int i = 0; i < this.redundant.length; i++) {
+				this.redundant[i] = this.redundant[i] || redundantFrags.contains(this.fas.get(i).getFrags());
+			}
+		}
+		return this.redundant;
+	}
+
+	/**
+	 * This class scans a range of groups, splitting it in halves to be scanned
+	 * in parallel.
+	 */
+	@SuppressWarnings("serial")
+	private class GroupTask extends RecursiveAction {
+
+		private int from;
+		private int to;
+
+		GroupTask(int from, int to) {
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (this.to - this.from == 1) {
+				scanGroup(this.from);
+				return;
+			}
+			int mid = (this.from + this.to) >>> 1;
+			invokeAll(new GroupTask(this.from, mid), new GroupTask(mid, this.to));
+		}
+	}
+
+	private void scanGroup(int g) {
+		int from = this.groupStarts[g];
+		int to = this.groupStarts[g + 1];
+		for (int p = from; p < to; p++) {
+			this.pack(this.order[p]);
+		}
+		// Every FrequencyArray able to contain the one at p comes before it
+		for (int p = from + 1; p < to; p++) {
+			int x = this.order[p];
+			FrequencyArray fa = this.fas.get(x);
+			for (int q = p - 1; q >= from; q--) {
+				int y = this.order[q];
+				if (this.fas.get(y).activeEnd() >= fa.activeEnd() && this.agree(x, y)) {
+					this.redundant[x] = true;
+					break;
+				}
+			}
+		}
+	}
+
+	private void pack(int i) {
+		FrequencyArray fa = this.fas.get(i);
+		int firstWord = fa.activeStart() >>> 6;
+		int numWords = (fa.activeEnd() >>> 6) - firstWord + 1;
+		this.coverage[i] = new long[numWords];
+		this.alleles[i] = new long[numWords];
+		fa.consensusWords(this.coverage[i], this.alleles[i], 0, firstWord, numWords);
+	}
+
+	/**
+	 * This method checks whether the consensus of the FrequencyArray at x,
+	 * which lies within the active region of the one at y, agrees with it
+	 * wherever both have a majority.
+	 */
+	private boolean agree(int x, int y) {
+		long[] coverageX = this.coverage[x];
+		long[] allelesX = this.alleles[x];
+		long[] coverageY = this.coverage[y];
+		long[] allelesY = this.alleles[y];
+		int shift = (this.fas.get(x).activeStart() >>> 6) - (this.fas.get(y).activeStart() >>> 6);
+		for (int w = 0; w < coverageX.length; w++) {
+			if ((coverageX[w] & coverageY[w + shift] & (allelesX[w] ^ allelesY[w + shift])) != 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+}
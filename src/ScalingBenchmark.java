@@ -0,0 +1,179 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * This class measures how phasing scales with the size of the input and the
+ * number of cores. For every width it generates a synthetic fragment matrix
+ * with MatrixGenerator, at the given coverage so that the number of fragments
+ * grows with the width, and phases it with Tester once for every number of
+ * cores. Every run is a JVM of its own started with -XX:ActiveProcessorCount,
+ * which bounds the common pool and every thread pool that the Solver sizes
+ * from the number of processors, so the curves are measured end to end on the
+ * same code that phases real inputs. The best of the repeated runs is reported
+ * as wall time, fragments phased per second and the speedup over the first
+ * number of cores.
+ *
+ * Usage: ScalingBenchmark [--widths=1000,10000,100000] [--cores=1,2,4] [--k=3]
+ * [--coverage=10] [--fragment-length=10] [--seed-length=3]
+ * [--error-rate=0.01] [--gap-rate=0.05] [--repeat=1]
+ * [--flags=--parallel-seeding,--parallel-merging] [--dir=path]
+ *
+ * @author Georgie Botev
+ */
+public class ScalingBenchmark {
+
+	// Fixed seed so that every run phases the same matrices
+	private static final long SEED = 42;
+
+	private int[] widths = { 1000, 10000, 100000 };
+	private int[] cores = { 1, 2, 4 };
+	private int k = 3;
+	private int coverage = 10;
+	private int fragmentLength = 10;
+	private int seedLength = 3;
+	private double errorRate = 0.01;
+	private double gapRate = 0.05;
+	private int numRepeats = 1;
+	private String[] flags = { "--parallel-seeding", "--parallel-merging" };
+	private String dir;
+
+	public static void main(String[] args) {
+		try {
+			ScalingBenchmark benchmark = new ScalingBenchmark();
+			for (String option : args) {
+				String[] parts = option.split("=", 2);
+				switch (parts[0]) {
+				case "--widths":
+					benchmark.widths = parseInts(parts[1]);
+					break;
+				case "--cores":
+					benchmark.cores = parseInts(parts[1]);
+					break;
+				case "--k":
+					benchmark.k = Integer.parseInt(parts[1]);
+					break;
+				case "--coverage":
+					benchmark.coverage = Integer.parseInt(parts[1]);
+					break;
+				case "--fragment-length":
+					benchmark.fragmentLength = Integer.parseInt(parts[1]);
+					break;
+				case "--seed-length":
+					benchmark.seedLength = Integer.parseInt(parts[1]);
+					break;
+				case "--error-rate":
+					benchmark.errorRate = Double.parseDouble(parts[1]);
+					break;
+				case "--gap-rate":
+					benchmark.gapRate = Double.parseDouble(parts[1]);
+					break;
+				case "--repeat":
+					benchmark.numRepeats = Integer.parseInt(parts[1]);
+					break;
+				case "--flags":
+					benchmark.flags = parts[1].isEmpty() ? new String[0] : parts[1].split(",");
+					break;
+				case "--dir":
+					benchmark.dir = parts[1];
+					break;
+				default:
+					throw new IllegalArgumentException(String.format("Unknown option %s.", option));
+				}
+			}
+			benchmark.run();
+		} catch (Exception e) {
+			System.err.println("Command-line arguments were not entered properly or an uncaught exception occured.");
+			e.printStackTrace(System.err);
+		}
+	}
+
+	private static int[] parseInts(String values) {
+		return Arrays.stream(values.split(",")).mapToInt(Integer::parseInt).toArray();
+	}
+
+	/**
+	 * This method generates the matrix of every width in turn and phases it
+	 * with every number of cores, deleting it once done.
+	 */
+	private void run() throws IOException, InterruptedException {
+		int available = Runtime.getRuntime().availableProcessors();
+		for (int numCores : this.cores) {
+			if (numCores > available) {
+				System.err.printf("Only %d cores are available; runs on %d cores will share them.\n", available,
+						numCores);
+			}
+		}
+		Path directory = this.dir == null ? Files.createTempDirectory("scaling") : Files.createDirectories(
+				new File(this.dir).toPath());
+		System.out.printf("%10s %12s %6s %12s %14s %8s\n", "width", "fragments", "cores", "ms", "fragments/s",
+				"speedup");
+		for (int width : this.widths) {
+			Path matrix = directory.resolve(String.format("matrix_%d.txt", width));
+			Path haplotypes = directory.resolve(String.format("haplotypes_%d.txt", width));
+			MatrixGenerator generator = new MatrixGenerator(this.k, width,
+					(long) this.coverage * width / this.fragmentLength, SEED);
+			generator.setErrorRate(this.errorRate);
+			generator.setGapRate(this.gapRate);
+			generator.setFragmentLength(this.fragmentLength, 0, this.fragmentLength, this.fragmentLength);
+			long numFragments = generator.write(matrix.toString(), haplotypes.toString());
+			long baseline = 0;
+			for (int numCores : this.cores) {
+				long best = Long.MAX_VALUE;
+				for (int r = 0; r < this.numRepeats; r++) {
+					best = Math.min(best, this.phase(matrix, numCores));
+				}
+				baseline = baseline == 0 ? best : baseline;
+				System.out.printf("%10d %12d %6d %12.1f %14.1f %8.2f\n", width, numFragments, numCores, best / 1e6,
+						numFragments / (best / 1e9), (double) baseline / best);
+			}
+			Files.delete(matrix);
+			Files.delete(haplotypes);
+		}
+		if (this.dir == null) {
+			Files.deleteIfExists(directory.resolve("phase.log"));
+			Files.delete(directory);
+		}
+	}
+
+	/**
+	 * This method phases the given matrix with Tester in a JVM limited to the
+	 * given number of cores, writing its output to phase.log next to it.
+	 *
+	 * @return The wall time of the run in nanoseconds.
+	 */
+	private long phase(Path matrix, int numCores) throws IOException, InterruptedException {
+		List<String> command = new ArrayList<String>();
+		command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+		command.add("-XX:ActiveProcessorCount=" + numCores);
+		command.add("-cp");
+		command.add(System.getProperty("java.class.path"));
+		command.add("Tester");
+		command.add(matrix.toString());
+		command.add(Integer.toString(this.k));
+		command.add("2.0");
+		command.add("1");
+		command.add(Integer.toString(this.seedLength));
+		command.add(Integer.toString(this.fragmentLength));
+		command.add("false");
+		command.add("false");
+		command.addAll(Arrays.asList(this.flags));
+		ProcessBuilder builder = new ProcessBuilder(command);
+		// Keep the output of the last run for when it fails
+		builder.redirectErrorStream(true);
+		builder.redirectOutput(matrix.resolveSibling("phase.log").toFile());
+		long startTime = System.nanoTime();
+		int exitCode = builder.start().waitFor();
+		long time = System.nanoTime() - startTime;
+		if (exitCode != 0) {
+			throw new IOException(String.format("Phasing %s on %d cores exited with code %d; see %s.", matrix,
+					numCores, exitCode, matrix.resolveSibling("phase.log")));
+		}
+		return time;
+	}
+
+}
@@ -0,0 +1,241 @@
+import java.util.Arrays;
+
+/**
+ * This class counts the seed patterns observed at a combination of seed
+ * indices. A seed pattern is encoded as an int whose i-th bit holds the allele
+ * at the i-th seed index, so at most 31 seed indices are supported. The
+ * supporting fragments of every pattern are chained together during the same
+ * pass, and the top patterns are selected by frequency without creating any
+ * intermediate objects. Buffers are reused across calls, so an instance must
+ * not be shared between threads.
+ *
+ * Patterns are ranked by decreasing frequency, and only one pattern of every
+ * frequency is kept: the one with the smallest encoding. The variability of a
+ * seed is therefore the number of distinct frequencies, and neither it nor the
+ * selected patterns depend on the order in which fragments are visited.
+ *
+ * @author Georgie Botev
+ */
+public class SeedCounter {
+
+	public static final int MAX_SEED_LENGTH = 31;
+	private static final int EMPTY = -1;
+
+	private FragmentStore store;
+	private FragmentIndex index;
+	private int numTop;
+	// Open-addressing table from pattern to slot of the distinct pattern
+	private int[] table;
+	private int mask;
+	// Distinct patterns in order of first appearance
+	private int[] patterns;
+	private int[] counts;
+	private int[] heads;
+	private int numPatterns;
+	// Chains of supporting fragments
+	private int[] chainIds;
+	private int[] chainNext;
+	private int chainSize;
+	// Slots of the top patterns, sorted by decreasing frequency
+	private int[] top;
+	private int numTopFound;
+	private int numFrequencies;
+	// Buffer of the selection
+	private long[] keys;
+
+	public SeedCounter(FragmentStore store, FragmentIndex index, int numTop) {
+		this.store = store;
+		this.index = index;
+		this.numTop = numTop;
+		this.table = new int[16];
+		Arrays.fill(this.table, EMPTY);
+		this.mask = this.table.length - 1;
+		this.patterns = new int[8];
+		this.counts = new int[8];
+		this.heads = new int[8];
+		this.chainIds = new int[64];
+		this.chainNext = new int[64];
+		this.top = new int[numTop];
+		this.keys = new long[8];
+	}
+
+	/**
+	 * This method counts the frequency of every seed pattern at the given seed
+	 * indices over the fragments that cover all of them, and selects the most
+	 * frequent patterns, one for every distinct frequency.
+	 *
+	 * @param indices The sorted seed indices.
+	 * @return The number of distinct frequencies of the seed patterns.
+	 */
+	public int count(int[] indices) {
+		this.reset();
+		int[] ids = this.index.ids();
+		int first = indices[0];
+		int last = indices[indices.length - 1];
+		int end = this.index.bucketEnd(first, last);
+		// Only fragments covering the first seed index and spanning the last
+		// can cover every seed index
+		candidates: for (int j = this.index.bucketStart(first); j < end; j++) {
+			int f = ids[j];
+			int pattern = 0;
+			for (int i = 0; i < indices.length; i++) {
+				int allele = this.store.allele(f, indices[i]);
+				if (allele < 0) {
+					continue candidates;
+				}
+				pattern |= allele << i;
+			}
+			this.add(pattern, f);
+		}
+		this.selectTop();
+		return this.numFrequencies;
+	}
+
+	/**
+	 * This method gets the frequency of the i-th most frequent seed pattern.
+	 *
+	 * @param i The rank of the pattern, starting at zero.
+	 * @return The summed frequency of the supporting fragments.
+	 */
+	public int topCount(int i) {
+		return this.counts[this.top[i]];
+	}
+
+	/**
+	 * This method gets the encoded i-th most frequent seed pattern.
+	 *
+	 * @param i The rank of the pattern, starting at zero.
+	 * @return The encoded seed pattern.
+	 */
+	public int topPattern(int i) {
+		return this.patterns[this.top[i]];
+	}
+
+	/**
+	 * This method collects the IDs of the fragments matching the i-th most
+	 * frequent seed pattern.
+	 *
+	 * @param i The rank of the pattern, starting at zero.
+	 * @return The set of supporting fragment IDs.
+	 */
+	public IntSet supportingFragments(int i) {
+		int slot = this.top[i];
+		int size = 0;
+		for (int c = this.heads[slot]; c != EMPTY; c = this.chainNext[c]) {
+			size++;
+		}
+		IntSet supportingFragments = new IntSet(size);
+		for (int c = this.heads[slot]; c != EMPTY; c = this.chainNext[c]) {
+			supportingFragments.add(this.chainIds[c]);
+		}
+		return supportingFragments;
+	}
+
+	private void reset() {
+		for (int i = 0; i < this.numPatterns; i++) {
+			// Clear only the table entries used by the previous call
+			for (int t = hash(this.patterns[i]) & this.mask;; t = (t + 1) & this.mask) {
+				if (this.table[t] == EMPTY) {
+					break;
+				}
+				this.table[t] = EMPTY;
+			}
+		}
+		this.numPatterns = 0;
+		this.chainSize = 0;
+		this.numTopFound = 0;
+		this.numFrequencies = 0;
+	}
+
+	private static int hash(int pattern) {
+		int h = pattern * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+
+	private void add(int pattern, int f) {
+		// Keep the table at most half full, even after a new pattern
+		if (this.numPatterns * 2 >= this.table.length) {
+			this.rehash();
+		}
+		int t = hash(pattern) & this.mask;
+		int slot;
+		while (true) {
+			slot = this.table[t];
+			if (slot == EMPTY) {
+				slot = this.newPattern(pattern);
+				this.table[t] = slot;
+				break;
+			}
+			if (this.patterns[slot] == pattern) {
+				break;
+			}
+			t = (t + 1) & this.mask;
+		}
+		this.counts[slot] += this.store.frequency(f);
+		// Chain fragment onto its pattern
+		if (this.chainSize == this.chainIds.length) {
+			this.chainIds = Arrays.copyOf(this.chainIds, this.chainSize * 2);
+			this.chainNext = Arrays.copyOf(this.chainNext, this.chainSize * 2);
+		}
+		this.chainIds[this.chainSize] = f;
+		this.chainNext[this.chainSize] = this.heads[slot];
+		this.heads[slot] = this.chainSize++;
+	}
+
+	private int newPattern(int pattern) {
+		if (this.numPatterns == this.patterns.length) {
+			int capacity = this.numPatterns * 2;
+			this.patterns = Arrays.copyOf(this.patterns, capacity);
+			this.counts = Arrays.copyOf(this.counts, capacity);
+			this.heads = Arrays.copyOf(this.heads, capacity);
+		}
+		int slot = this.numPatterns++;
+		this.patterns[slot] = pattern;
+		this.counts[slot] = 0;
+		this.heads[slot] = EMPTY;
+		return slot;
+	}
+
+	private void rehash() {
+		this.table = new int[this.table.length * 2];
+		Arrays.fill(this.table, EMPTY);
+		this.mask = this.table.length - 1;
+		for (int slot = 0; slot < this.numPatterns; slot++) {
+			int t = hash(this.patterns[slot]) & this.mask;
+			while (this.table[t] != EMPTY) {
+				t = (t + 1) & this.mask;
+			}
+			this.table[t] = slot;
+		}
+	}
+
+	private void selectTop() {
+		if (this.keys.length < this.numPatterns) {
+			this.keys = new long[this.numPatterns * 2];
+		}
+		// Sort by decreasing frequency, then by increasing pattern
+		for (int slot = 0; slot < this.numPatterns; slot++) {
+			this.keys[slot] = (long) (Integer.MAX_VALUE - this.counts[slot]) << 32 | this.patterns[slot];
+		}
+		Arrays.sort(this.keys, 0, this.numPatterns);
+		// Keep the first pattern of every frequency
+		for (int i = 0; i < this.numPatterns; i++) {
+			if (i > 0 && this.keys[i] >>> 32 == this.keys[i - 1] >>> 32) {
+				continue;
+			}
+			if (this.numTopFound < this.numTop) {
+				this.top[this.numTopFound++] = this.slot((int) this.keys[i]);
+			}
+			this.numFrequencies++;
+		}
+	}
+
+	private int slot(int pattern) {
+		for (int t = hash(pattern) & this.mask;; t = (t + 1) & this.mask) {
+			if (this.patterns[this.table[t]] == pattern) {
+				return this.table[t];
+			}
+		}
+	}
+
+}
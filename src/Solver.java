@@ -1,22 +1,27 @@
-import java.util.AbstractMap;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
-import java.util.Collection;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 import java.util.concurrent.PriorityBlockingQueue;
-import java.util.concurrent.TimeUnit;
-
-import com.google.common.collect.Multiset;
-import com.google.common.collect.Sets;
-import com.google.common.collect.TreeMultiset;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
 
 /**
  * This class implements a heuristic phasing algorithm for k-ploid genomes.
@@ -25,8 +30,15 @@ import com.google.common.collect.TreeMultiset;
  */
 public class Solver {
 
+	// Upper bound on twisting iterations, in case assignments oscillate
+	private static final int MAX_TWISTS = 100;
+	// Number of pairs merged per round and available processor in parallel merging
+	private static final int MERGE_BATCH_FACTOR = 4;
 	private int tag = 0;
-	private Set<Fragment> fragments;
+	private FragmentStore fragments;
+	private FragmentIndex index;
+	private CoveragePruner pruner;
+	private LongAdder numSeedsEvaluated = new LongAdder();
 	private int numFragments;
 	private int numSNP;
 	private int k;
@@ -36,30 +48,53 @@ public class Solver {
 	private int fragmentLength;
 	private boolean prettyPrint;
 	private boolean inclusiveSeeding;
+	private boolean parallelSeeding = false;
+	private boolean conflictFiltering = false;
+	private boolean parallelMerging = false;
+	private boolean serialMergeOrder = false;
+	// Jaccard threshold of approximate pairing, or 0 for exact pairing
+	private double pairingThreshold = 0;
+	private boolean pairingRecall = false;
+	private boolean blockPhasing = false;
+	// Checkpoint to write after seeding and every checkpointInterval merges
+	private String checkpointFile = null;
+	private int checkpointInterval = 0;
+	private int numMergesSinceCheckpoint = 0;
+	// Checkpoint to resume from, or null to start from scratch
+	private String resumeFile = null;
 	private long seqNum = 0;
+	private int nextId = 0;
+	// FrequencyArrays being merged, indexed by ID and by fragment
+	private List<FrequencyArray> haplotypesById;
+	private HaplotypeIndex haplotypeIndex;
+	private OverlapCounter overlapCounter;
 	private List<FrequencyArray> seedHaplotypes = new ArrayList<FrequencyArray>();
+	// Streams for the phased haplotypes and for progress messages
+	private PrintStream out = System.out;
+	private PrintStream log = System.err;
 	// Use default initial size
-	private static PriorityBlockingQueue<FIFOFrequencyArrayPair> faPairs = new PriorityBlockingQueue<FIFOFrequencyArrayPair>(11);
+	private PriorityBlockingQueue<FIFOFrequencyArrayPair> faPairs = new PriorityBlockingQueue<FIFOFrequencyArrayPair>(11);
 
-	public Solver(Set<Fragment> fragments, int k, double alpha, int beta,
+	public Solver(FragmentStore fragments, int k, double alpha, int beta,
 			int seedLength, int fragmentLength, boolean prettyPrint,
 			boolean inclusiveSeeding) {
 		this.fragments = fragments;
 		// Number of keys
 		this.numFragments = fragments.size();
-		for (Fragment f : this.fragments) {
-			if (f.endIndex() > this.numSNP) {
-				this.numSNP = f.endIndex();
-			}
-		}
 		// Starts at zero and is inclusive of last SNP site
-		this.numSNP += 1;
+		this.numSNP = fragments.numSNP();
+		// Index fragments by the SNP sites they cover for seeding
+		this.index = new FragmentIndex(fragments);
 		// Save k-ploid specification
 		this.k = k;
 		// Save hyperparameters
 		this.alpha = alpha;
 		this.beta = beta;
 		// Save training parameters
+		if (seedLength < 1 || seedLength > SeedCounter.MAX_SEED_LENGTH) {
+			throw new IllegalArgumentException(String.format("Seed length must be between 1 and %d.",
+					SeedCounter.MAX_SEED_LENGTH));
+		}
 		this.seedLength = seedLength;
 		this.fragmentLength = fragmentLength;
 		// Save formatting parameters
@@ -68,337 +103,911 @@ public class Solver {
 		this.inclusiveSeeding = inclusiveSeeding;
 	}
 
+	/**
+	 * This method sets the stream the phased haplotypes are printed to.
+	 * 
+	 * @param out The output stream, System.out by default.
+	 */
+	public void setOutput(PrintStream out) {
+		this.out = out;
+	}
+
+	/**
+	 * This method sets the stream progress messages are printed to.
+	 * 
+	 * @param log The log stream, System.err by default.
+	 */
+	public void setLog(PrintStream log) {
+		this.log = log;
+	}
+
+	/**
+	 * This method toggles seeding SNP windows in parallel on the common
+	 * fork-join pool. The resulting seeds, including their tags, are the same
+	 * as in serial seeding.
+	 * 
+	 * @param parallelSeeding Whether to seed in parallel.
+	 */
+	public void setParallelSeeding(boolean parallelSeeding) {
+		this.parallelSeeding = parallelSeeding;
+	}
+
+	/**
+	 * This method toggles removing the supporting fragments of every seed that
+	 * conflict with its majority alleles before pairing.
+	 * 
+	 * @param conflictFiltering Whether to filter conflicting fragments.
+	 */
+	public void setConflictFiltering(boolean conflictFiltering) {
+		this.conflictFiltering = conflictFiltering;
+	}
+
+	/**
+	 * This method toggles merging in rounds of disjoint pairs, which are
+	 * merged and paired on all available cores.
+	 * 
+	 * @param parallelMerging Whether to merge in parallel.
+	 */
+	public void setParallelMerging(boolean parallelMerging) {
+		this.parallelMerging = parallelMerging;
+	}
+
+	/**
+	 * This method toggles keeping the merge order of serial merging when
+	 * merging in parallel, so that the resulting haplotypes are the same.
+	 * 
+	 * @param serialMergeOrder Whether to keep the serial merge order.
+	 */
+	public void setSerialMergeOrder(boolean serialMergeOrder) {
+		this.serialMergeOrder = serialMergeOrder;
+	}
+
+	/**
+	 * This method switches the initial pairing to MinHash sketches with LSH
+	 * banding, which only scores the pairs of seeds likely to have a Jaccard
+	 * index of at least the given threshold.
+	 * 
+	 * @param pairingThreshold The Jaccard threshold, or 0 for exact pairing.
+	 */
+	public void setApproximatePairing(double pairingThreshold) {
+		this.pairingThreshold = pairingThreshold;
+	}
+
+	/**
+	 * This method toggles measuring the recall of approximate pairing against
+	 * exact pairing, which takes as long as exact pairing itself.
+	 * 
+	 * @param pairingRecall Whether to report the recall.
+	 */
+	public void setPairingRecall(boolean pairingRecall) {
+		this.pairingRecall = pairingRecall;
+	}
+
+	/**
+	 * This method toggles splitting the fragments into phase blocks that no
+	 * fragment spans across, and phasing every block separately in parallel.
+	 * Every block is seeded and merged serially, so parallel seeding and
+	 * merging do not apply. The haplotypes are printed block by block in
+	 * genomic order.
+	 * 
+	 * @param blockPhasing Whether to phase blocks separately.
+	 */
+	public void setBlockPhasing(boolean blockPhasing) {
+		this.blockPhasing = blockPhasing;
+	}
+
+	/**
+	 * This method sets the file a checkpoint is written to once seeding is
+	 * done. Checkpoints are not written for phase blocks.
+	 * 
+	 * @param checkpointFile The path of the checkpoint, or null for none.
+	 */
+	public void setCheckpoint(String checkpointFile) {
+		this.checkpointFile = checkpointFile;
+	}
+
+	/**
+	 * This method sets how often a checkpoint is written while merging. In
+	 * parallel merging, checkpoints are written between rounds.
+	 * 
+	 * @param checkpointInterval The number of merges between checkpoints, or
+	 *            0 to only write a checkpoint after seeding.
+	 */
+	public void setCheckpointInterval(int checkpointInterval) {
+		this.checkpointInterval = checkpointInterval;
+	}
+
+	/**
+	 * This method sets a checkpoint to resume from instead of starting from
+	 * scratch. The checkpoint must have been written for the same fragments
+	 * and k.
+	 * 
+	 * @param resumeFile The path of the checkpoint, or null for none.
+	 */
+	public void setResume(String resumeFile) {
+		this.resumeFile = resumeFile;
+	}
+
+	/**
+	 * This method writes a checkpoint of the given stage, if checkpoints are
+	 * enabled. Failing to write one is reported but does not stop phasing.
+	 * 
+	 * @param stage The stage the Solver is in.
+	 */
+	private void writeCheckpoint(int stage) {
+		this.numMergesSinceCheckpoint = 0;
+		if (this.checkpointFile == null) {
+			return;
+		}
+		long startTime = System.nanoTime();
+		Checkpoint checkpoint = new Checkpoint(stage, this.tag, this.seqNum, this.nextId, this.seedHaplotypes,
+				this.faPairs);
+		try {
+			checkpoint.write(this.checkpointFile, this.fragments, this.k);
+			this.log.printf("Wrote checkpoint of %d haplotypes and %d pairs in %d ms.\n", this.seedHaplotypes.size(),
+					this.faPairs.size(), (System.nanoTime() - startTime) / 1000000);
+		} catch (IOException e) {
+			this.log.println(String.format("Unable to write checkpoint %s: %s", this.checkpointFile, e.getMessage()));
+		}
+	}
+
+	/**
+	 * This method counts the given number of merges and writes a checkpoint
+	 * once checkpointInterval merges have been made since the last one.
+	 * 
+	 * @param numMerges The number of merges just made.
+	 */
+	private void countMerges(int numMerges) {
+		this.numMergesSinceCheckpoint += numMerges;
+		if (this.checkpointInterval > 0 && this.numMergesSinceCheckpoint >= this.checkpointInterval) {
+			this.writeCheckpoint(Checkpoint.MERGING);
+		}
+	}
+
+	/**
+	 * This method restores the state of the Solver from the checkpoint to
+	 * resume from. When resuming while merging, the indices of the merge are
+	 * rebuilt from the haplotypes that are still being merged.
+	 * 
+	 * @return The stage of the checkpoint.
+	 * @throws IOException If the checkpoint could not be read.
+	 */
+	private int readCheckpoint() throws IOException {
+		Checkpoint checkpoint = Checkpoint.read(this.resumeFile, this.fragments, this.k);
+		this.tag = checkpoint.tag();
+		this.seqNum = checkpoint.seqNum();
+		this.nextId = checkpoint.nextId();
+		this.seedHaplotypes = new ArrayList<FrequencyArray>(checkpoint.haplotypes());
+		if (checkpoint.stage() == Checkpoint.MERGING) {
+			this.haplotypeIndex = new HaplotypeIndex(this.numFragments);
+			this.overlapCounter = new OverlapCounter(this.haplotypeIndex);
+			// IDs of haplotypes that were merged away are left empty
+			this.haplotypesById = new ArrayList<FrequencyArray>(Collections.nCopies(this.nextId, (FrequencyArray) null));
+			for (FrequencyArray fa : this.seedHaplotypes) {
+				this.haplotypesById.set(fa.getId(), fa);
+				this.haplotypeIndex.add(fa);
+			}
+			this.faPairs.addAll(checkpoint.pairs());
+		}
+		this.log.printf("Resumed from checkpoint of %d haplotypes and %d pairs.\n", this.seedHaplotypes.size(),
+				checkpoint.pairs().size());
+		return checkpoint.stage();
+	}
+
 	/**
 	 * This method initializes the PriorityQueue with all of the initial pairs.
+	 * Only pairs of seeds sharing at least one fragment are scored, which are
+	 * found through the fragments of each seed.
+	 */
+	void initializeBestMerges() {
+		// Keep one seed of every set of supporting fragments, so that no two
+		// FrequencyArrays are equal while merging
+		int numSeeds = this.seedHaplotypes.size();
+		this.seedHaplotypes = new ArrayList<FrequencyArray>(new LinkedHashSet<FrequencyArray>(this.seedHaplotypes));
+		this.log.printf("Removed %d duplicate seeds.\n", numSeeds - this.seedHaplotypes.size());
+		// Give every seed a stable ID and index it by its fragments
+		this.haplotypeIndex = new HaplotypeIndex(this.numFragments);
+		this.overlapCounter = new OverlapCounter(this.haplotypeIndex);
+		this.haplotypesById = new ArrayList<FrequencyArray>(this.seedHaplotypes);
+		for (FrequencyArray fa : this.seedHaplotypes) {
+			fa.setId(this.nextId++);
+			this.haplotypeIndex.add(fa);
+		}
+		if (this.pairingThreshold > 0) {
+			this.initializeApproximateMerges();
+			return;
+		}
+		// Calculate all overlapping seedHaplotype pairs
+		for (FrequencyArray fa1 : this.seedHaplotypes) {
+			// Pair only with later seeds so that every pair is added once
+			this.addBestMerges(fa1, fa1.getId() + 1);
+		}
+	}
+
+	/**
+	 * This method initializes the PriorityQueue with the pairs of seeds found
+	 * by MinHash pairing that share at least one fragment, and if asked to,
+	 * reports how many of the pairs of exact pairing were found.
 	 */
-	private void initializeBestMerges() {
-		// Save current number of seeds for efficiency
-		int numSeedHaplotypes = this.seedHaplotypes.size();
-		// Calculate all seedHaplotype pairs
-		for (int i = 0; i < numSeedHaplotypes - 1; i++) {
-			FrequencyArray fa1 = this.seedHaplotypes.get(i);
-			double fa1Size = fa1.numSupportingFrags();
-			Set<Fragment> fa1Frags = fa1.getFrags();
-			// Create all FrequencyArray pairs
-			for (int j = i + 1; j < numSeedHaplotypes; j++) {
-				FrequencyArray fa2 = this.seedHaplotypes.get(j);
-				double fa2Size = fa2.numSupportingFrags();
-				// We do not have reason to believe that either
-				// fa1 or fa2 will be smaller in size, so pass in
-				// function arguments in any order
-				double intersectionSize = Sets
-						.intersection(fa1Frags, fa2.getFrags()).size();
-				// Use Jaccard index
-				double currIndex = intersectionSize
-						/ (fa1Size + fa2Size - intersectionSize);
-				// Only add if the intersection size is greater than zero;
-				// this guarantees that the merge step will execute as expected
-				if (intersectionSize > 0) {
-					faPairs.add(new FIFOFrequencyArrayPair(new FrequencyArrayPair(fa1, fa2, currIndex), seqNum++));
+	private void initializeApproximateMerges() {
+		MinHashPairing pairing = new MinHashPairing(this.pairingThreshold);
+		long[] candidates = pairing.candidates(this.seedHaplotypes);
+		for (long candidate : candidates) {
+			FrequencyArray fa1 = this.haplotypesById.get((int) (candidate >>> 32));
+			FrequencyArray fa2 = this.haplotypesById.get((int) candidate);
+			int intersectionSize = fa1.getFrags().intersectionSize(fa2.getFrags());
+			if (intersectionSize > 0) {
+				faPairs.add(new FIFOFrequencyArrayPair(new FrequencyArrayPair(fa1, fa2,
+						jaccard(intersectionSize, fa1.numSupportingFrags(), fa2.numSupportingFrags())),
+						seqNum++));
+			}
+		}
+		this.log.printf("MinHash pairing with %d bands of %d rows (%.1f%% expected recall at %.2f) found %d candidate pairs.\n",
+				pairing.numBands(), pairing.numRows(), 100 * pairing.candidateProbability(this.pairingThreshold),
+				this.pairingThreshold, candidates.length);
+		if (!this.pairingRecall) {
+			return;
+		}
+		// Compare with the pairs of exact pairing
+		long numPairs = 0;
+		long numFound = 0;
+		long numAbove = 0;
+		long numFoundAbove = 0;
+		for (FrequencyArray fa1 : this.seedHaplotypes) {
+			int numOverlaps = this.overlapCounter.count(fa1, fa1.getId() + 1);
+			for (int i = 0; i < numOverlaps; i++) {
+				FrequencyArray fa2 = this.haplotypesById.get(this.overlapCounter.overlapId(i));
+				long pair = ((long) fa1.getId() << 32) | fa2.getId();
+				boolean found = Arrays.binarySearch(candidates, pair) >= 0;
+				numPairs++;
+				numFound += found ? 1 : 0;
+				if (jaccard(this.overlapCounter.overlapSize(i), fa1.numSupportingFrags(),
+						fa2.numSupportingFrags()) >= this.pairingThreshold) {
+					numAbove++;
+					numFoundAbove += found ? 1 : 0;
 				}
 			}
 		}
+		this.log.printf("Recall: %d of %d overlapping pairs (%.1f%%), %d of %d pairs with Jaccard index of at least %.2f (%.1f%%).\n",
+				numFound, numPairs, percentage(numFound, numPairs), numFoundAbove, numAbove,
+				this.pairingThreshold, percentage(numFoundAbove, numAbove));
 	}
 
-	public void phaseSerial() {
-		// Determine seeds
-		System.err.println("Seeding");
-		this.seed(new int[this.seedLength], this.fragmentLength, 0);
-		// Remove conflicting fragments
-		// seedHaplotypes =
-		// FrequencyArray.removeConflictingFragments(seedHaplotypes);
-		// Find the best initial merges
-		System.err.println("Pairing");
-		this.initializeBestMerges();
-		// Merge best-guesses for seeds in parallel
-		System.err.println("Merging");
-		Collection<FIFOFrequencyArrayPair> toRemove = new HashSet<FIFOFrequencyArrayPair>();
-		// Parallelize for-loops
-		ExecutorService executorService = null;
-		// Print the starting number of pairs
-		System.err.printf("Starting number of pairs: %d\n", faPairs.size());
-		while (!faPairs.isEmpty()) {
-			//System.err.println(faPairs.size());
-			FrequencyArrayPair bestMerge = faPairs.poll().getFrequencyArrayPair();
-			FrequencyArray fa1 = bestMerge.getFirst();
-			FrequencyArray fa2 = bestMerge.getSecond();
+	private static double percentage(long part, long total) {
+		return total == 0 ? 100.0 : 100.0 * part / total;
+	}
+
+	/**
+	 * This method adds a pair to the PriorityQueue for the given FrequencyArray
+	 * and every other one sharing at least one fragment with it, scored by the
+	 * Jaccard index of their supporting fragments.
+	 * 
+	 * @param fa1 The FrequencyArray to pair.
+	 * @param minId The smallest ID of the FrequencyArrays to pair it with.
+	 */
+	private void addBestMerges(FrequencyArray fa1, int minId) {
+		this.overlapCounter.count(fa1, minId);
+		this.addBestMerges(fa1, new Overlaps(this.overlapCounter, -1));
+	}
+
+	/**
+	 * This method adds a pair to the PriorityQueue for the given FrequencyArray
+	 * and every one of the given overlapping FrequencyArrays.
+	 * 
+	 * @param fa1 The FrequencyArray to pair.
+	 * @param overlaps The FrequencyArrays sharing fragments with it.
+	 */
+	private void addBestMerges(FrequencyArray fa1, Overlaps overlaps) {
+		double fa1Size = fa1.numSupportingFrags();
+		for (int i = 0; i < overlaps.size; i++) {
+			FrequencyArray fa2 = this.haplotypesById.get(overlaps.ids[i]);
+			// Use Jaccard index
+			double currIndex = jaccard(overlaps.sizes[i], fa1Size, fa2.numSupportingFrags());
+			faPairs.add(new FIFOFrequencyArrayPair(new FrequencyArrayPair(fa1, fa2, currIndex), seqNum++));
+		}
+	}
+
+	private static double jaccard(double intersectionSize, double size1, double size2) {
+		return intersectionSize / (size1 + size2 - intersectionSize);
+	}
+
+	/**
+	 * This method records a merge: both FrequencyArrays are retired and
+	 * replaced by the merge in seedHaplotypes and in the indices.
+	 * 
+	 * @param fa1 The first FrequencyArray of the merge.
+	 * @param fa2 The second FrequencyArray of the merge.
+	 * @param merge The result of the merge.
+	 */
+	private void recordMerge(FrequencyArray fa1, FrequencyArray fa2, FrequencyArray merge) {
+		fa1.retire();
+		fa2.retire();
+		this.removeSeedHaplotype(fa1);
+		this.removeSeedHaplotype(fa2);
+		// The merge keeps the ID of the larger FrequencyArray, so only
+		// the fragments of the smaller one need to be reindexed
+		FrequencyArray smaller = merge.getId() == fa1.getId() ? fa2 : fa1;
+		this.haplotypeIndex.replace(smaller, merge);
+		this.haplotypesById.set(merge.getId(), merge);
+		// Add merge to seedHaplotypes
+		this.seedHaplotypes.add(merge);
+	}
+
+	/**
+	 * This method repeatedly merges the best pair of FrequencyArrays and pairs
+	 * the merge with every FrequencyArray sharing fragments with it, until no
+	 * pairs are left.
+	 */
+	private void mergeSerial() {
+		while (this.mergeNext()) {
+		}
+	}
+
+	/**
+	 * This method takes the best pair off the PriorityQueue and merges it,
+	 * unless it is stale or cannot be merged. This is one iteration of serial
+	 * merging; it is package-private so that Benchmarks can time it.
+	 * 
+	 * @return False if there were no pairs left, else true.
+	 */
+	boolean mergeNext() {
+		FIFOFrequencyArrayPair next = faPairs.poll();
+		if (next == null) {
+			return false;
+		}
+		FrequencyArrayPair bestMerge = next.getFrequencyArrayPair();
+		FrequencyArray fa1 = bestMerge.getFirst();
+		FrequencyArray fa2 = bestMerge.getSecond();
+		// Pairs involving a FrequencyArray that was merged away are
+		// discarded when they come up instead of being searched for
+		if (!bestMerge.isStale() && FrequencyArray.canMerge(fa1, fa2)) {
 			FrequencyArray merge = FrequencyArray.merge(fa1, fa2);
-			if (merge != null) {
-				// Merge was successful, so update seedHaplotypes
-				this.seedHaplotypes.remove(fa1);
-				this.seedHaplotypes.remove(fa2);
-				// Update only the pairs that could have changed
-				// Remove all FrequencyArrayPairs that were involved in merge
-				for (FIFOFrequencyArrayPair FIFOfap : faPairs) {
-					// Extract FrequencyArrayPair from FIFOFrequencyArrayPair
-					FrequencyArrayPair fap = FIFOfap.getFrequencyArrayPair();
-					if (fap.contains(fa1) || fap.contains(fa2)) {
-						// Sequence number does not matter here because we have
-						// overridden the equals method and are only comparing
-						// the underlying FrequencyArrayPair
-						toRemove.add(new FIFOFrequencyArrayPair(fap, -1));
+			this.recordMerge(fa1, fa2, merge);
+			// Now, add the FrequencyArrayPairs of every FrequencyArray
+			// sharing fragments with the merge
+			this.addBestMerges(merge, 0);
+			this.countMerges(1);
+		}
+		return true;
+	}
+
+	/**
+	 * This method merges in rounds. Every round takes the best pairs whose
+	 * FrequencyArrays are pairwise disjoint, merges them concurrently, and pairs
+	 * all of the merges concurrently. With serialMergeOrder, a round is cut
+	 * short before the first pair that the serial merge order would not have
+	 * taken next, so the result is the same as that of mergeSerial.
+	 */
+	private void mergeParallel() {
+		ExecutorService executorService = Executors.newWorkStealingPool();
+		try {
+			this.mergeRounds(executorService);
+		} finally {
+			executorService.shutdown();
+		}
+	}
+
+	private void mergeRounds(ExecutorService executorService) {
+		int batchSize = MERGE_BATCH_FACTOR * Runtime.getRuntime().availableProcessors();
+		ThreadLocal<OverlapCounter> overlapCounters = ThreadLocal
+				.withInitial(() -> new OverlapCounter(this.haplotypeIndex));
+		List<FIFOFrequencyArrayPair> polled = new ArrayList<FIFOFrequencyArrayPair>();
+		List<FrequencyArrayPair> batch = new ArrayList<FrequencyArrayPair>();
+		List<Integer> polledPositions = new ArrayList<Integer>();
+		IntSet batchIds = new IntSet();
+		int numRounds = 0;
+		while (!faPairs.isEmpty()) {
+			// Take the best pairs whose FrequencyArrays are not in an earlier
+			// pair of the round, since those pairs would be stale by then
+			polled.clear();
+			batch.clear();
+			polledPositions.clear();
+			batchIds.clear();
+			while (batch.size() < batchSize && !faPairs.isEmpty()) {
+				FIFOFrequencyArrayPair FIFOfap = faPairs.poll();
+				FrequencyArrayPair fap = FIFOfap.getFrequencyArrayPair();
+				FrequencyArray fa1 = fap.getFirst();
+				FrequencyArray fa2 = fap.getSecond();
+				if (fap.isStale() || !FrequencyArray.canMerge(fa1, fa2)) {
+					continue;
+				}
+				polled.add(FIFOfap);
+				if (batchIds.contains(fa1.getId()) || batchIds.contains(fa2.getId())) {
+					continue;
+				}
+				batchIds.add(fa1.getId());
+				batchIds.add(fa2.getId());
+				batch.add(fap);
+				polledPositions.add(polled.size() - 1);
+			}
+			if (batch.isEmpty()) {
+				break;
+			}
+			numRounds++;
+			if (this.serialMergeOrder) {
+				List<Overlaps> overlaps = invokeAll(executorService, batch, fap -> {
+					OverlapCounter overlapCounter = overlapCounters.get();
+					overlapCounter.count(fap.getFirst(), fap.getSecond());
+					return new Overlaps(overlapCounter, overlapCounter.numFragments());
+				});
+				int numValid = this.validateRound(batch, overlaps);
+				if (numValid < batch.size()) {
+					// Return every pair polled from the first invalid one on
+					for (int i = polledPositions.get(numValid); i < polled.size(); i++) {
+						faPairs.add(polled.get(i));
 					}
+					batch.subList(numValid, batch.size()).clear();
 				}
-				faPairs.removeAll(toRemove);
-				// Now, add all FrequencyArrayPairs
-				Set<Fragment> mergedFrags = merge.getFrags();
-				double mergedFragsSize = mergedFrags.size();
-				// Reinitialize executorService since it may have shutdown
-				executorService = Executors.newWorkStealingPool();
-				for (FrequencyArray fa : this.seedHaplotypes) {
-					executorService.submit(new Runnable() {
-						@Override
-						public void run() {
-							Set<Fragment> currFrags = fa.getFrags();
-							double currFragsSize = currFrags.size();
-							double intersectionSize;
-							if (mergedFragsSize <= currFragsSize) {
-								intersectionSize = Sets
-										.intersection(mergedFrags, currFrags)
-										.size();
-							} else {
-								// currFragsSize < mergedFragsSize
-								intersectionSize = Sets
-										.intersection(currFrags, mergedFrags)
-										.size();
-							}
-							// If intersection size is zero, merge will always
-							// fail, so do not add!
-							if (intersectionSize > 0) {
-								// Intersection size is zero, but set score to
-								// Jaccard index
-								faPairs.add(new FIFOFrequencyArrayPair(new FrequencyArrayPair(merge, 
-										fa,
-										intersectionSize / (currFragsSize 
-												+ mergedFragsSize
-												- intersectionSize)),
-										seqNum++));
-							}
-						}
-					});
+			}
+			// Merge all pairs of the round concurrently; they are disjoint
+			List<FrequencyArray> merges = invokeAll(executorService, batch,
+					fap -> FrequencyArray.merge(fap.getFirst(), fap.getSecond()));
+			Map<Integer, Integer> mergePositions = new HashMap<Integer, Integer>();
+			for (int i = 0; i < batch.size(); i++) {
+				this.recordMerge(batch.get(i).getFirst(), batch.get(i).getSecond(), merges.get(i));
+				mergePositions.put(merges.get(i).getId(), i);
+			}
+			// Pair every merge concurrently, leaving the pairs of two merges to
+			// the later one, as the serial merge order would
+			List<Overlaps> overlaps = invokeAll(executorService, merges, merge -> {
+				OverlapCounter overlapCounter = overlapCounters.get();
+				int position = mergePositions.get(merge.getId());
+				overlapCounter.count(merge, 0);
+				Overlaps result = new Overlaps(overlapCounter, -1);
+				int size = 0;
+				for (int i = 0; i < result.size; i++) {
+					Integer other = mergePositions.get(result.ids[i]);
+					if (other == null || other < position) {
+						result.ids[size] = result.ids[i];
+						result.sizes[size++] = result.sizes[i];
+					}
 				}
-				// Set unrealistically large termination timeout!
-				try {
-					executorService.shutdown();
-					executorService.awaitTermination(1, TimeUnit.DAYS);
-				} catch (InterruptedException e) {
-					System.err.println("The executorService was interrupted while awaiting termination.");
-					System.exit(1);
+				result.size = size;
+				return result;
+			});
+			for (int i = 0; i < merges.size(); i++) {
+				this.addBestMerges(merges.get(i), overlaps.get(i));
+			}
+			this.countMerges(merges.size());
+		}
+		this.log.printf("Merged in %d rounds.\n", numRounds);
+	}
+
+	/**
+	 * This method checks how many pairs of a round the serial merge order
+	 * would have merged in a row. The i-th pair is only taken next if none of
+	 * the pairs created by the earlier merges that are still valid then
+	 * scores higher; ties go to the older i-th pair.
+	 * 
+	 * @param batch The pairs of the round, in order.
+	 * @param overlaps The FrequencyArrays sharing fragments with the merge of
+	 *            each pair, before the round.
+	 * @return The number of pairs at the start of the round to merge.
+	 */
+	private int validateRound(List<FrequencyArrayPair> batch, List<Overlaps> overlaps) {
+		// Position in the round of the pair of every FrequencyArray
+		Map<Integer, Integer> positions = new HashMap<Integer, Integer>();
+		for (int i = 0; i < batch.size(); i++) {
+			positions.put(batch.get(i).getFirst().getId(), i);
+			positions.put(batch.get(i).getSecond().getId(), i);
+		}
+		// Scores of the pairs of every merge with the FrequencyArrays of
+		// later pairs of the round, which are only valid until those merge
+		List<double[]> laterScores = new ArrayList<double[]>();
+		List<int[]> laterPositions = new ArrayList<int[]>();
+		for (Overlaps overlap : overlaps) {
+			double[] scores = new double[overlap.size];
+			int[] others = new int[overlap.size];
+			int size = 0;
+			for (int o = 0; o < overlap.size; o++) {
+				Integer other = positions.get(overlap.ids[o]);
+				if (other != null) {
+					scores[size] = jaccard(overlap.sizes[o], overlap.mergedSize,
+							this.haplotypesById.get(overlap.ids[o]).numSupportingFrags());
+					others[size++] = other;
 				}
-				// Add merge to seedHaplotypes
-				this.seedHaplotypes.add(merge);
-				// Clear collection
-				toRemove.clear();
 			}
+			laterScores.add(Arrays.copyOf(scores, size));
+			laterPositions.add(Arrays.copyOf(others, size));
 		}
-		// Sort by SADF to print in convenient order
-		Collections.sort(this.seedHaplotypes, new Comparator<FrequencyArray>() {
-			public int compare(FrequencyArray fa1, FrequencyArray fa2) {
-				// return -Integer.compare(fa1.length(), fa2.length());
-				return -FrequencyArray.compareFrequencyArrays2(fa1, fa2);
+		// Best score of the pairs that stay valid for the rest of the round
+		double best = Double.NEGATIVE_INFINITY;
+		for (int i = 1; i < batch.size(); i++) {
+			// Pairs of the previous merge with FrequencyArrays outside of the
+			// round and with earlier merges
+			Overlaps previous = overlaps.get(i - 1);
+			for (int o = 0; o < previous.size; o++) {
+				Integer other = positions.get(previous.ids[o]);
+				if (other == null) {
+					best = Math.max(best, jaccard(previous.sizes[o], previous.mergedSize,
+							this.haplotypesById.get(previous.ids[o]).numSupportingFrags()));
+				}
 			}
-		});
-		// Precompute size for efficiency
-		int seedHaplotypesSize = this.seedHaplotypes.size();
-		// Combine all FrequencyArrays which are redundant; cycle through all pairs
-		HashSet<FrequencyArray> redundantFAs = new HashSet<FrequencyArray>();
-		for (int i = 0; i < seedHaplotypesSize - 1; i++) {
-			for (int j = i + 1; j < seedHaplotypesSize; j++) {
-				FrequencyArray result = FrequencyArray.combine(
-						this.seedHaplotypes.get(i),
-						this.seedHaplotypes.get(j));
-				if (result != null) {
-					redundantFAs.add(result);
+			for (int j = 0; j < i - 1; j++) {
+				if (previous.contains(batch.get(j).getFirst().getId())
+						|| previous.contains(batch.get(j).getSecond().getId())) {
+					best = Math.max(best, jaccard(intersectionSize(batch.get(i - 1), batch.get(j)),
+							previous.mergedSize, overlaps.get(j).mergedSize));
 				}
 			}
+			// Pairs of every earlier merge with the FrequencyArrays of the
+			// pairs that have not been merged yet
+			double max = best;
+			for (int j = 0; j < i; j++) {
+				double[] scores = laterScores.get(j);
+				int[] others = laterPositions.get(j);
+				for (int o = 0; o < scores.length; o++) {
+					if (others[o] >= i) {
+						max = Math.max(max, scores[o]);
+					}
+				}
+			}
+			if (max > batch.get(i).getScore()) {
+				return i;
+			}
 		}
-		this.seedHaplotypes.removeAll(redundantFAs);
-		// Print out all haplotypes
-		for (FrequencyArray fa : this.seedHaplotypes) {
-			String currString = (!this.prettyPrint)
-					? fa.consensus().print()
-					: fa.consensus().prettyPrint();
-			System.out.printf("%s\n", currString);
-		}
+		return batch.size();
 	}
 
-	private static class ValueComparator implements Comparator<String> {
-		private HashMap<String, Integer> map = new HashMap<String, Integer>();
-
-		public ValueComparator(HashMap<String, Integer> map) {
-			this.map.putAll(map);
+	/**
+	 * This method counts the fragments shared by the merges of the two given
+	 * pairs without merging them.
+	 * 
+	 * @param fap1 The first pair.
+	 * @param fap2 The second pair.
+	 * @return The size of the intersection of the merges.
+	 */
+	private static int intersectionSize(FrequencyArrayPair fap1, FrequencyArrayPair fap2) {
+		IntSet frags1 = fap1.getFirst().getFrags();
+		IntSet frags2 = fap1.getSecond().getFrags();
+		IntSet frags3 = fap2.getFirst().getFrags();
+		IntSet frags4 = fap2.getSecond().getFrags();
+		int count = 0;
+		for (int f : frags1.toArray()) {
+			if (frags3.contains(f) || frags4.contains(f)) {
+				count++;
+			}
 		}
+		for (int f : frags2.toArray()) {
+			if (!frags1.contains(f) && (frags3.contains(f) || frags4.contains(f))) {
+				count++;
+			}
+		}
+		return count;
+	}
 
-		@Override
-		public int compare(String s1, String s2) {
-			if (this.map.get(s1) > this.map.get(s2)) {
-				return -1;
-			} else if (this.map.get(s1) < this.map.get(s2)) {
-				return 1;
-			} else {
-				// this.map.get(s1) == this.map.get(s2))
-				return 0;
+	/**
+	 * This method runs the given task on every item on the given
+	 * executorService and waits for the results.
+	 * 
+	 * @param executorService The executorService to run on.
+	 * @param items The items to process.
+	 * @param task The task to run on each item.
+	 * @return The results, in the order of the items.
+	 */
+	private static <T, R> List<R> invokeAll(ExecutorService executorService, List<T> items,
+			Function<T, R> task) {
+		List<Callable<R>> tasks = new ArrayList<Callable<R>>(items.size());
+		for (T item : items) {
+			tasks.add(() -> task.apply(item));
+		}
+		List<R> results = new ArrayList<R>(items.size());
+		try {
+			for (Future<R> future : executorService.invokeAll(tasks)) {
+				results.add(future.get());
 			}
+		} catch (InterruptedException e) {
+			// Let the caller, such as a BatchRunner job, fail instead of the JVM
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("The executorService was interrupted.", e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException(e.getCause());
 		}
+		return results;
 	}
 
-	private boolean isMatch(String seed, int[] indices, Fragment f) {
-		for (int i = 0; i < indices.length; i++) {
-			if (!(indices[i] >= f.startIndex() && indices[i] <= f.endIndex()
-					&& f.toString().charAt(indices[i] - f.startIndex()) == seed
-							.charAt(i))) {
-				return false;
+	/**
+	 * This method removes the given FrequencyArray itself from seedHaplotypes,
+	 * rather than the first FrequencyArray equal to it, since merging empties
+	 * the removed instance.
+	 * 
+	 * @param fa The FrequencyArray to remove.
+	 */
+	private void removeSeedHaplotype(FrequencyArray fa) {
+		for (int i = 0; i < this.seedHaplotypes.size(); i++) {
+			if (this.seedHaplotypes.get(i) == fa) {
+				this.seedHaplotypes.remove(i);
+				return;
 			}
 		}
-		return true;
 	}
 
-	private boolean isValid(int[] indices, Fragment f) {
-		for (int i = 0; i < indices.length; i++) {
-			if (!(indices[i] >= f.startIndex() && indices[i] <= f.endIndex()
-					&& f.toString()
-							.charAt(indices[i] - f.startIndex()) != '-')) {
-				return false;
+	/**
+	 * This method finds the phase blocks. Fragments are stored in order of
+	 * starting index, so sweeping them while tracking the furthest ending index
+	 * so far splits them into runs of IDs whose SNP sites are joined by
+	 * overlapping fragments. No fragment spans two blocks, so no seed or merge
+	 * can involve fragments of two blocks.
+	 * 
+	 * @return The first ID of every block, followed by the number of fragments.
+	 */
+	private List<Integer> findBlocks() {
+		List<Integer> blockStarts = new ArrayList<Integer>();
+		int blockEnd = -1;
+		for (int f = 0; f < this.numFragments; f++) {
+			if (this.fragments.startIndex(f) > blockEnd) {
+				blockStarts.add(f);
 			}
+			blockEnd = Math.max(blockEnd, this.fragments.endIndex(f));
 		}
-		return true;
+		blockStarts.add(this.numFragments);
+		return blockStarts;
 	}
 
-	private TreeMap<String, Integer> seedFrequency(int[] indices) {
-		HashMap<String, Integer> seedFrequencies = new HashMap<String, Integer>(
-				indices.length);
-		for (Fragment f : this.fragments) {
-			if (this.isValid(indices, f)) {
-				// Seed SNP sites are valid for current fragment, so add if
-				// unique
-				StringBuilder sb = new StringBuilder(indices.length);
-				for (int i = 0; i < indices.length; i++) {
-					sb.append(f.toString().charAt(indices[i] - f.startIndex()));
-				}
-				String seed = sb.toString();
-				if (!seedFrequencies.containsKey(seed)) {
-					// Does NOT contain seed, so add it with its frequency
-					seedFrequencies.put(seed, f.frequency());
-				} else {
-					// CONTAINS seed, so increment its frequency
-					seedFrequencies.put(seed,
-							seedFrequencies.get(seed) + f.frequency());
-				}
+	/**
+	 * This method phases every phase block with a Solver of its own on a
+	 * bounded thread pool, and prints the progress messages of the blocks in
+	 * genomic order. Every block is moved down to the nearest multiple of 64
+	 * SNP sites, so its Solver only spans the block.
+	 * 
+	 * @return The haplotypes of every block, in genomic order of the blocks.
+	 */
+	private List<Fragment> phaseBlocks() {
+		long startTime = System.nanoTime();
+		List<Integer> blockStarts = this.findBlocks();
+		List<Integer> blocks = new ArrayList<Integer>();
+		for (int b = 0; b < blockStarts.size() - 1; b++) {
+			blocks.add(b);
+		}
+		this.log.printf("Phasing %d blocks\n", blocks.size());
+		ExecutorService executorService = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+		// Every block writes only its own log, which is read once all are done
+		String[] logs = new String[blocks.size()];
+		List<List<Fragment>> haplotypes;
+		try {
+			haplotypes = invokeAll(executorService, blocks, b -> this.phaseBlock(blockStarts.get(b),
+					blockStarts.get(b + 1), logs, b));
+		} finally {
+			executorService.shutdown();
+		}
+		List<Fragment> result = new ArrayList<Fragment>();
+		for (int b = 0; b < blocks.size(); b++) {
+			this.log.printf("Block %d of %d fragments\n%s", b + 1,
+					blockStarts.get(b + 1) - blockStarts.get(b), logs[b]);
+			result.addAll(haplotypes.get(b));
+		}
+		this.log.printf("Phased %d blocks in %d ms.\n", blocks.size(), (System.nanoTime() - startTime) / 1000000);
+		return result;
+	}
+
+	/**
+	 * This method phases the fragments of one block with a Solver of its own.
+	 * 
+	 * @param from The position of the first fragment of the block.
+	 * @param to The position after the last fragment of the block.
+	 * @param logs Receives the log of the block.
+	 * @param block The number of the block.
+	 * @return The haplotypes of the block at their SNP sites.
+	 */
+	private List<Fragment> phaseBlock(int from, int to, String[] logs, int block) {
+		int shift = (this.fragments.startIndex(from) >>> 6) << 6;
+		Solver solver = new Solver(this.fragments.subset(from, to, shift), this.k, this.alpha, this.beta,
+				this.seedLength, this.fragmentLength, this.prettyPrint, this.inclusiveSeeding);
+		// The blocks already keep every core busy, so every block is seeded
+		// and merged serially rather than starting pools of its own
+		solver.conflictFiltering = this.conflictFiltering;
+		solver.pairingThreshold = this.pairingThreshold;
+		ByteArrayOutputStream log = new ByteArrayOutputStream();
+		solver.setLog(new PrintStream(log));
+		List<Fragment> blockHaplotypes = new ArrayList<Fragment>();
+		for (Fragment haplotype : solver.phase()) {
+			// Move the haplotypes back to their SNP sites
+			blockHaplotypes.add(new Fragment(haplotype.startIndex() + shift, haplotype.toString()));
+		}
+		logs[block] = log.toString();
+		return blockHaplotypes;
+	}
+
+	/**
+	 * This method gets the seeds, or the haplotypes once merging has started.
+	 * 
+	 * @return The list of haplotypes; do not modify.
+	 */
+	List<FrequencyArray> getSeedHaplotypes() {
+		return this.seedHaplotypes;
+	}
+
+	/**
+	 * This method finds the seeds of every SNP window.
+	 */
+	void seedAll() {
+		// Determine seeds
+		this.log.println("Seeding");
+		// A seed needs more distinct frequencies than the variability threshold
+		// and at least one fragment for each of the k haplotypes
+		int variabilityThreshold = this.inclusiveSeeding ? this.k - 1 : this.k;
+		this.pruner = new CoveragePruner(this.fragments, this.index, this.fragmentLength,
+				Math.max(variabilityThreshold + 1, this.k));
+		if (this.parallelSeeding) {
+			this.seedParallel();
+		} else {
+			this.seed(new int[this.seedLength], this.fragmentLength, 0,
+					new SeedCounter(this.fragments, this.index, this.k),
+					new TwistKernel(this.fragments, this.k, this.beta));
+		}
+		long numCombinations = this.pruner.numCombinations(this.seedLength);
+		this.log.printf("Pruned %d of %d seed index combinations.\n",
+				numCombinations - this.numSeedsEvaluated.sum(), numCombinations);
+	}
+
+	/**
+	 * This method phases the fragments and prints the haplotypes to the
+	 * output stream.
+	 */
+	public void phaseSerial() {
+		for (Fragment haplotype : this.phase()) {
+			String currString = (!this.prettyPrint)
+					? haplotype.print()
+					: haplotype.prettyPrint();
+			this.out.printf("%s\n", currString);
+		}
+	}
+
+	/**
+	 * This method phases the fragments: it seeds, merges the seeds and removes
+	 * the redundant haplotypes, or does so for every phase block separately.
+	 * 
+	 * @return The consensus of every haplotype.
+	 */
+	public List<Fragment> phase() {
+		if (this.blockPhasing) {
+			return this.phaseBlocks();
+		}
+		int stage = 0;
+		if (this.resumeFile != null) {
+			try {
+				stage = this.readCheckpoint();
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+		if (stage < Checkpoint.SEEDED) {
+			this.seedAll();
+			this.writeCheckpoint(Checkpoint.SEEDED);
+		}
+		if (stage < Checkpoint.MERGING) {
+			// Remove conflicting fragments
+			if (this.conflictFiltering) {
+				this.log.println("Filtering conflicts");
+				long startTime = System.nanoTime();
+				int numRemoved = FrequencyArray.removeConflictingFragments(this.seedHaplotypes);
+				this.log.printf("Removed %d conflicting fragments in %d ms.\n", numRemoved,
+						(System.nanoTime() - startTime) / 1000000);
 			}
+			// Find the best initial merges
+			this.log.println("Pairing");
+			this.initializeBestMerges();
 		}
-		TreeMap<String, Integer> sortedSeedFrequencies = new TreeMap<String, Integer>(
-				new ValueComparator(seedFrequencies));
-		sortedSeedFrequencies.putAll(seedFrequencies);
-		return sortedSeedFrequencies;
+		// Merge best-guesses for seeds
+		this.log.println("Merging");
+		// Print the starting number of pairs
+		this.log.printf("Starting number of pairs: %d\n", faPairs.size());
+		if (this.parallelMerging) {
+			this.mergeParallel();
+		} else {
+			this.mergeSerial();
+		}
+		// Sort by SADF to print in convenient order
+		Collections.sort(this.seedHaplotypes, new Comparator<FrequencyArray>() {
+			public int compare(FrequencyArray fa1, FrequencyArray fa2) {
+				// return -Integer.compare(fa1.length(), fa2.length());
+				return -FrequencyArray.compareFrequencyArrays2(fa1, fa2);
+			}
+		});
+		// Remove every haplotype made redundant by another one
+		boolean[] redundant = new RedundancyFilter(this.seedHaplotypes).findRedundant();
+		List<FrequencyArray> remaining = new ArrayList<FrequencyArray>(this.seedHaplotypes.size());
+		for (int i = 0; i < redundant.length; i++) {
+			if (!redundant[i]) {
+				remaining.add(this.seedHaplotypes.get(i));
+			}
+		}
+		this.log.printf("Removed %d of %d redundant haplotypes\n",
+				this.seedHaplotypes.size() - remaining.size(), this.seedHaplotypes.size());
+		this.seedHaplotypes = remaining;
+		List<Fragment> haplotypes = new ArrayList<Fragment>(this.seedHaplotypes.size());
+		for (FrequencyArray fa : this.seedHaplotypes) {
+			haplotypes.add(fa.consensus());
+		}
+		return haplotypes;
 	}
 
-	private void doSeed(int[] indices) {
-		TreeMap<String, Integer> seedFrequency = this.seedFrequency(indices);
+	private Set<FrequencyArray> doSeed(int[] indices, SeedCounter seedCounter, TwistKernel twistKernel) {
+		this.numSeedsEvaluated.increment();
+		int numSeeds = seedCounter.count(indices);
 		// Make sure there is enough variability at this seed site
 		int variabilityThreshold = this.inclusiveSeeding ? this.k - 1: this.k;
-		if (seedFrequency.size() > variabilityThreshold) {
-			Set<FrequencyArray> currSeedGroup = new HashSet<FrequencyArray>(
-					this.k);
-			int size = 0;
+		if (numSeeds > variabilityThreshold) {
+			FrequencyArray[] result = new FrequencyArray[this.k];
 			for (int i = 0; i < this.k; i++) {
-				FrequencyArray fa = new FrequencyArray(this.numSNP, this.tag);
+				result[i] = new FrequencyArray(this.fragments);
 				// For top k (already sorted) find consensus
-				Map.Entry<String, Integer> currEntry = seedFrequency
-						.pollFirstEntry();
-				String currSeed = currEntry.getKey();
-				Set<Fragment> currSupport = this.supportingFragments(currSeed,
-						indices);
-				fa.addFragment(currSupport);
-				size += currSupport.size();
-				currSeedGroup.add(fa);
-			}
-			// Process currSeedGroup here to remove errors via twisting step
-			Set<FrequencyArray> result = currSeedGroup;
-			while (true) {
-				// Twist until we cannot twist anymore (size does not change)
-				Set<FrequencyArray> result2 = this.twist(result, this.tag,
-						size);
-				if (result2 == null) {
+				result[i].addFragment(seedCounter.supportingFragments(i));
+			}
+			// Process seed group here to remove errors via twisting step;
+			// twist until no fragment changes haplotype
+			for (int i = 0;; i++) {
+				int moves = this.twist(result, twistKernel);
+				if (moves < 0 || i == MAX_TWISTS) {
 					// Twisting failed
-					return;
+					return null;
 				}
-				if (result2.equals(result)) {
-					// They are same
-					result = result2;
+				if (moves == 0) {
 					break;
 				}
-				result = result2;
 			}
-			this.seedHaplotypes.addAll(result);
-			this.tag++;
+			return new HashSet<FrequencyArray>(Arrays.asList(result));
 		}
+		return null;
 	}
 
-	private Set<FrequencyArray> twist(Set<FrequencyArray> fas, int tag,
-			int size) {
-		// Extract all supporting fragments from current seed group
-		Set<Fragment> supportingFrags = new HashSet<Fragment>(size + size / 2);
-		for (FrequencyArray fa : fas) {
-			supportingFrags.addAll(fa.getFrags());
-		}
-
-		ArrayList<Fragment> consensuses = new ArrayList<Fragment>(this.k);
-		ArrayList<Set<Fragment>> fasNewRaw = new ArrayList<Set<Fragment>>(
-				this.k);
-		// Initialization step
-		for (int i = 0; i < this.k; i++) {
-			fasNewRaw.add(new HashSet<Fragment>());
-		}
-		// Calculate current consensus for efficiency
-		for (FrequencyArray fa : fas) {
-			consensuses.add(fa.consensus());
-		}
-		TreeMultiset<Map.Entry<Integer, Integer>> scores = TreeMultiset
-				.create(Map.Entry.comparingByKey());
-		for (Fragment f : supportingFrags) {
-			for (int i = 0; i < this.k; i++) {
-				int score = consensuses.get(i).similarTo(f);
-				scores.add(
-						new AbstractMap.SimpleImmutableEntry<Integer, Integer>(
-								score, i));
-			}
-			Multiset.Entry<Map.Entry<Integer, Integer>> highScore = scores
-					.lastEntry();
-			if (highScore.getCount() == 1 && highScore.getElement()
-					.getKey() >= f.length() - this.beta) {
-				// DEFAULT: f.length() - 1
-				// The membership of this fragment is unambiguous because it
-				// matches 1 of the consensus
-				// haplotypes and there are either no errors or 1 error (when
-				// using magic number 8).
-				fasNewRaw.get(highScore.getElement().getValue()).add(f);
-			}
-			scores.clear();
+	/**
+	 * This method reassigns every supporting fragment of the seed group to the
+	 * haplotype whose consensus it matches unambiguously, dropping the
+	 * ambiguous ones. Only the fragments that move are removed from and added
+	 * to the frequency arrays, so the consensuses are updated incrementally.
+	 * 
+	 * @param fas The k haplotypes of the seed group, updated in place.
+	 * @param twistKernel The twist kernel of the current thread.
+	 * @return The number of fragments that moved, or -1 if a haplotype was
+	 *         left with too few supporting fragments.
+	 */
+	int twist(FrequencyArray[] fas, TwistKernel twistKernel) {
+		// Score all supporting fragments from current seed group against
+		// every consensus
+		int numSupportingFrags = twistKernel.score(fas);
+		int[] sizes = new int[this.k];
+		int moves = 0;
+		for (int i = 0; i < numSupportingFrags; i++) {
+			int assignment = twistKernel.assignment(i);
+			if (assignment >= 0) {
+				sizes[assignment]++;
+			}
+			if (assignment != twistKernel.origin(i)) {
+				moves++;
+			}
 		}
 		// Save for efficiency
-		double cutoff = ((double) (supportingFrags.size())
-				/ (this.alpha * this.k));
+		double cutoff = ((double) numSupportingFrags / (this.alpha * this.k));
 		for (int i = 0; i < this.k; i++) {
-			if (fasNewRaw.get(i).size() <= cutoff) {
+			if (sizes[i] <= cutoff) {
 				// If one of the seeds does not have "enough" supporting
 				// fragments
 				// Or... strictly less than k partitions
-				return null;
+				return -1;
 			}
 		}
-
-		Set<FrequencyArray> fasNew = new HashSet<FrequencyArray>();
-		for (int i = 0; i < this.k; i++) {
-			FrequencyArray fa = new FrequencyArray(this.numSNP, tag);
-			fa.addFragment(fasNewRaw.get(i));
-			fasNew.add(fa);
+		// Apply only the fragments that moved
+		for (int i = 0; i < numSupportingFrags; i++) {
+			int assignment = twistKernel.assignment(i);
+			int origin = twistKernel.origin(i);
+			if (assignment != origin) {
+				fas[origin].removeFragment(twistKernel.fragment(i));
+				if (assignment >= 0) {
+					fas[assignment].addFragment(twistKernel.fragment(i));
+				}
+			}
 		}
-		return fasNew;
+		return moves;
 	}
 
-	private void seed(int[] indices, int limit, int level) {
+	private void seed(int[] indices, int limit, int level, SeedCounter seedCounter,
+			TwistKernel twistKernel) {
 		if (level == indices.length) {
-			this.doSeed(indices);
+			Set<FrequencyArray> seedGroup = this.doSeed(indices, seedCounter, twistKernel);
+			if (seedGroup != null) {
+				this.addSeedGroup(seedGroup);
+			}
 		} else {
 			int start = (level == 0) ? 0 : indices[level - 1] + 1;
 			for (indices[level] = start; indices[level] < this.numSNP; indices[level]++) {
@@ -406,19 +1015,153 @@ public class Solver {
 						&& indices[indices.length - 1] - indices[0] >= limit) {
 					break;
 				}
-				seed(indices, limit, level + 1);
+				if (!this.pruner.canExtend(indices, level)) {
+					// Too few fragments cover this index together with the previous ones
+					continue;
+				}
+				seed(indices, limit, level + 1, seedCounter, twistKernel);
+			}
+		}
+	}
+
+	/**
+	 * This method enumerates the seed index combinations whose first index is
+	 * already set, collecting the successful seed groups in enumeration order.
+	 * 
+	 * @param indices The seed indices, with indices[0] set.
+	 * @param limit The maximum distance between the first and last index.
+	 * @param level The index currently being enumerated.
+	 * @param seedCounter The seed counter of the current thread.
+	 * @param twistKernel The twist kernel of the current thread.
+	 * @param seedGroups The list to collect seed groups into.
+	 */
+	private void seed(int[] indices, int limit, int level, SeedCounter seedCounter,
+			TwistKernel twistKernel, List<Set<FrequencyArray>> seedGroups) {
+		if (level == indices.length) {
+			Set<FrequencyArray> seedGroup = this.doSeed(indices, seedCounter, twistKernel);
+			if (seedGroup != null) {
+				seedGroups.add(seedGroup);
+			}
+		} else {
+			for (indices[level] = indices[level - 1] + 1; indices[level] < this.numSNP; indices[level]++) {
+				if (level == indices.length - 1
+						&& indices[indices.length - 1] - indices[0] >= limit) {
+					break;
+				}
+				if (!this.pruner.canExtend(indices, level)) {
+					// Too few fragments cover this index together with the previous ones
+					continue;
+				}
+				seed(indices, limit, level + 1, seedCounter, twistKernel, seedGroups);
 			}
 		}
 	}
 
-	private Set<Fragment> supportingFragments(String seed, int[] indices) {
-		HashSet<Fragment> supportingFragments = new HashSet<Fragment>();
-		for (Fragment f : this.fragments) {
-			if (this.isMatch(seed, indices, f)) {
-				supportingFragments.add(f);
+	/**
+	 * This class seeds a range of first seed indices, splitting the range in
+	 * half until it is small enough to enumerate directly. Seed groups are
+	 * returned in the same order as the serial enumeration.
+	 */
+	private class SeedTask extends RecursiveTask<List<Set<FrequencyArray>>> {
+		private static final long serialVersionUID = 1L;
+		// Number of first seed indices enumerated by a single task
+		private static final int GRAIN = 8;
+		private final int from;
+		private final int to;
+
+		SeedTask(int from, int to) {
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected List<Set<FrequencyArray>> compute() {
+			if (this.to - this.from <= GRAIN) {
+				List<Set<FrequencyArray>> seedGroups = new ArrayList<Set<FrequencyArray>>();
+				int[] indices = new int[seedLength];
+				SeedCounter seedCounter = new SeedCounter(fragments, index, k);
+				TwistKernel twistKernel = new TwistKernel(fragments, k, beta);
+				for (indices[0] = this.from; indices[0] < this.to; indices[0]++) {
+					if (!pruner.canExtend(indices, 0)) {
+						// Too few fragments cover the first index
+						continue;
+					}
+					if (indices.length == 1) {
+						Set<FrequencyArray> seedGroup = doSeed(indices, seedCounter, twistKernel);
+						if (seedGroup != null) {
+							seedGroups.add(seedGroup);
+						}
+					} else {
+						seed(indices, fragmentLength, 1, seedCounter, twistKernel, seedGroups);
+					}
+				}
+				return seedGroups;
 			}
+			int mid = (this.from + this.to) >>> 1;
+			SeedTask left = new SeedTask(this.from, mid);
+			SeedTask right = new SeedTask(mid, this.to);
+			right.fork();
+			List<Set<FrequencyArray>> seedGroups = left.compute();
+			seedGroups.addAll(right.join());
+			return seedGroups;
 		}
-		return supportingFragments;
+	}
+
+	/**
+	 * This method seeds every SNP window in parallel on the common fork-join
+	 * pool and appends the seed groups to seedHaplotypes in the same order as
+	 * the serial enumeration. The groups are only tagged here, so their tags
+	 * do not depend on how the enumeration was split into tasks.
+	 */
+	private void seedParallel() {
+		List<Set<FrequencyArray>> seedGroups = ForkJoinPool.commonPool()
+				.invoke(new SeedTask(0, this.numSNP));
+		for (Set<FrequencyArray> seedGroup : seedGroups) {
+			this.addSeedGroup(seedGroup);
+		}
+	}
+
+	/**
+	 * This method gives every FrequencyArray of a successful seed group the
+	 * next tag and appends the group to seedHaplotypes.
+	 * 
+	 * @param seedGroup The seed group to add.
+	 */
+	private void addSeedGroup(Set<FrequencyArray> seedGroup) {
+		for (FrequencyArray fa : seedGroup) {
+			fa.addTags(Collections.singleton(this.tag));
+		}
+		this.seedHaplotypes.addAll(seedGroup);
+		this.tag++;
+	}
+
+	/**
+	 * This class holds a copy of the FrequencyArrays found by an
+	 * OverlapCounter, so that it can be reused.
+	 */
+	private static class Overlaps {
+
+		private int[] ids;
+		private int[] sizes;
+		private int size;
+		// Size of the merge the overlaps were counted for, or -1
+		private int mergedSize;
+
+		Overlaps(OverlapCounter overlapCounter, int mergedSize) {
+			this.size = overlapCounter.numOverlaps();
+			this.ids = new int[this.size];
+			this.sizes = new int[this.size];
+			for (int i = 0; i < this.size; i++) {
+				this.ids[i] = overlapCounter.overlapId(i);
+				this.sizes[i] = overlapCounter.overlapSize(i);
+			}
+			this.mergedSize = mergedSize;
+		}
+
+		boolean contains(int id) {
+			return Arrays.binarySearch(this.ids, 0, this.size, id) >= 0;
+		}
+
 	}
 
 }
@@ -0,0 +1,335 @@
+import java.io.BufferedReader;
+import java.io.FileNotFoundException;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+/**
+ * This class phases a fragment matrix in short format that is sorted by
+ * starting index without loading it as a whole. The fragments are read in
+ * windows of SNP sites of a fixed width, each overlapping the previous one by
+ * a fixed number of sites, and every window is phased by a Solver of its own.
+ * The haplotypes of a window are stitched to those of the previous windows
+ * that they agree with on the overlap. Once the next window starts, no later
+ * window can reach the SNP sites before it, so that prefix of every pending
+ * haplotype is final and is handed over as a piece of the haplotype. Only the
+ * fragments of the current window and the tails of the haplotypes that may
+ * still be stitched are kept, so memory and the cost of stitching depend on
+ * the width of the windows rather than on the number of SNP sites.
+ *
+ * @author Georgie Botev
+ */
+public class StreamingPhaser {
+
+	private int width;
+	private int overlap;
+	private Function<FragmentStore, Solver> solvers;
+	private PrintStream log = System.err;
+	private BufferedReader reader;
+	private String fileName;
+	private Fragment next;
+	// Tails of the haplotypes that a later window may still stitch to
+	private List<Fragment> pending = new ArrayList<Fragment>();
+	// Number of the haplotype of every pending tail
+	private List<Integer> numbers = new ArrayList<Integer>();
+	private int numHaplotypes;
+
+	/**
+	 * @param width The number of SNP sites whose fragments form a window.
+	 * @param overlap The number of SNP sites shared by adjacent windows.
+	 * @param solvers Creates the Solver of a window from its fragments.
+	 */
+	public StreamingPhaser(int width, int overlap, Function<FragmentStore, Solver> solvers) {
+		if (width < 1 || overlap < 0 || overlap >= width) {
+			throw new IllegalArgumentException("The window overlap must be less than the window width.");
+		}
+		this.width = width;
+		this.overlap = overlap;
+		this.solvers = solvers;
+	}
+
+	/**
+	 * This method sets the stream progress messages are printed to.
+	 *
+	 * @param log The log stream, System.err by default.
+	 */
+	public void setLog(PrintStream log) {
+		this.log = log;
+	}
+
+	/**
+	 * This method phases the given fragment matrix window by window.
+	 *
+	 * @param fileName The path of the fragment matrix in short format, sorted
+	 *            by starting index.
+	 * @param haplotypes Receives the number of a haplotype and a piece of it
+	 *            once that piece is final. The pieces of a haplotype come in
+	 *            order of SNP sites and do not overlap.
+	 * @throws IOException If the file could not be read or is not sorted.
+	 */
+	public void phase(String fileName, BiConsumer<Integer, Fragment> haplotypes) throws IOException {
+		this.fileName = fileName;
+		try (BufferedReader reader = new BufferedReader(new FileReader(fileName))) {
+			this.reader = reader;
+			this.next = this.read();
+			// Distinct fragments of the current window, in order of starting index
+			Map<Fragment, Fragment> window = new LinkedHashMap<Fragment, Fragment>();
+			int windowStart = this.next == null ? 0 : this.next.startIndex();
+			int numWindows = 0;
+			while (this.next != null) {
+				// Read every fragment starting in the window
+				int windowEnd = windowStart + this.width;
+				while (this.next != null && this.next.startIndex() < windowEnd) {
+					window.merge(this.next, this.next, (f1, f2) -> {
+						f1.addFrequency(f2.frequency());
+						return f1;
+					});
+					this.next = this.read();
+				}
+				List<Fragment> windowHaplotypes = this.phaseWindow(window.values(), windowStart);
+				int numStitched = this.stitch(windowHaplotypes);
+				this.log.printf("Window %d (SNP sites %d to %d): %d fragments, %d haplotypes, %d stitched\n",
+						++numWindows, windowStart, windowEnd - 1, window.size(), windowHaplotypes.size(), numStitched);
+				if (this.next == null) {
+					// Every fragment has been phased
+					break;
+				}
+				// Release the fragments that the next window does not share
+				int nextStart = windowEnd - this.overlap;
+				Iterator<Fragment> it = window.keySet().iterator();
+				while (it.hasNext() && it.next().startIndex() < nextStart) {
+					it.remove();
+				}
+				if (window.isEmpty()) {
+					// Skip the SNP sites that no fragment starts at
+					nextStart = Math.max(nextStart, this.next.startIndex());
+				}
+				// Hand over the SNP sites that no later window can reach
+				this.release(nextStart, haplotypes);
+				windowStart = nextStart;
+			}
+			this.release(Integer.MAX_VALUE, haplotypes);
+		} catch (FileNotFoundException e) {
+			throw new FileNotFoundException(String.format("Unable to open file %s.", fileName));
+		} finally {
+			this.reader = null;
+		}
+	}
+
+	private Fragment read() throws IOException {
+		for (String line = this.reader.readLine(); line != null; line = this.reader.readLine()) {
+			int tab = line.indexOf('\t');
+			if (tab < 0) {
+				continue;
+			}
+			Fragment f = new Fragment(Integer.parseInt(line.substring(0, tab).trim()),
+					line.substring(tab + 1).trim());
+			if (this.next != null && f.startIndex() < this.next.startIndex()) {
+				throw new IOException(String.format("%s is not sorted by starting index.", this.fileName));
+			}
+			return f;
+		}
+		return null;
+	}
+
+	/**
+	 * This method phases the fragments of a window with a Solver of its own,
+	 * moved down to the nearest multiple of 64 SNP sites.
+	 */
+	private List<Fragment> phaseWindow(Iterable<Fragment> fragments, int windowStart) {
+		int shift = (windowStart >>> 6) << 6;
+		List<Fragment> distinct = new ArrayList<Fragment>();
+		for (Fragment f : fragments) {
+			distinct.add(f);
+		}
+		Solver solver = this.solvers.apply(FragmentStore.of(distinct, shift));
+		// The progress messages of every window would drown out the summaries
+		solver.setLog(new PrintStream(new OutputStream() {
+			@Override
+			public void write(int b) {
+			}
+		}));
+		List<Fragment> haplotypes = new ArrayList<Fragment>();
+		for (Fragment haplotype : solver.phase()) {
+			if (haplotype.length() > 0) {
+				haplotypes.add(new Fragment(haplotype.startIndex() + shift, haplotype.toString()));
+			}
+		}
+		return haplotypes;
+	}
+
+	/**
+	 * This method stitches the haplotypes of a window to the pending ones.
+	 * Every pair of a pending and a new haplotype that overlap, agree on at
+	 * least one SNP site and disagree on none is scored by the number of SNP
+	 * sites they agree on, and the best pairs are stitched greedily, each
+	 * haplotype at most once. The new haplotypes that are not stitched become
+	 * pending themselves. Since the window starts after every SNP site that
+	 * was handed over, the pending tails hold every site it can share.
+	 *
+	 * @param haplotypes The haplotypes of the window.
+	 * @return The number of new haplotypes that were stitched.
+	 */
+	private int stitch(List<Fragment> haplotypes) {
+		List<long[]> pairs = new ArrayList<long[]>();
+		for (int i = 0; i < this.pending.size(); i++) {
+			Fragment p = this.pending.get(i);
+			for (int j = 0; j < haplotypes.size(); j++) {
+				Fragment h = haplotypes.get(j);
+				if (h.startIndex() <= p.endIndex() && p.startIndex() <= h.endIndex()) {
+					int score = agreement(p, h);
+					if (score > 0) {
+						pairs.add(new long[] { score, i, j });
+					}
+				}
+			}
+		}
+		// Best scores first, ties in order of the haplotypes
+		Collections.sort(pairs, (a, b) -> {
+			for (int x = 0; x < 3; x++) {
+				if (a[x] != b[x]) {
+					return x == 0 ? Long.compare(b[x], a[x]) : Long.compare(a[x], b[x]);
+				}
+			}
+			return 0;
+		});
+		boolean[] pendingStitched = new boolean[this.pending.size()];
+		boolean[] stitched = new boolean[haplotypes.size()];
+		int numStitched = 0;
+		for (long[] pair : pairs) {
+			int i = (int) pair[1];
+			int j = (int) pair[2];
+			if (!pendingStitched[i] && !stitched[j]) {
+				pendingStitched[i] = true;
+				stitched[j] = true;
+				numStitched++;
+				this.pending.set(i, union(this.pending.get(i), haplotypes.get(j)));
+			}
+		}
+		for (int j = 0; j < haplotypes.size(); j++) {
+			if (!stitched[j]) {
+				this.pending.add(haplotypes.get(j));
+				this.numbers.add(this.numHaplotypes++);
+			}
+		}
+		return numStitched;
+	}
+
+	/**
+	 * This method counts the SNP sites at which both haplotypes have an
+	 * allele and agree.
+	 *
+	 * @return The number of agreeing SNP sites, or -1 if they disagree at any.
+	 */
+	private static int agreement(Fragment f1, Fragment f2) {
+		long[] coverage1 = f1.coverageWords();
+		long[] alleles1 = f1.alleleWords();
+		long[] coverage2 = f2.coverageWords();
+		long[] alleles2 = f2.alleleWords();
+		int start = Math.max(f1.firstWord(), f2.firstWord());
+		int end = Math.min(f1.firstWord() + coverage1.length, f2.firstWord() + coverage2.length);
+		int score = 0;
+		for (int w = start; w < end; w++) {
+			int i = w - f1.firstWord();
+			int j = w - f2.firstWord();
+			long both = coverage1[i] & coverage2[j];
+			if ((both & (alleles1[i] ^ alleles2[j])) != 0) {
+				return -1;
+			}
+			score += Long.bitCount(both);
+		}
+		return score;
+	}
+
+	/**
+	 * This method joins two agreeing haplotypes, taking the allele of either
+	 * one at every SNP site.
+	 */
+	private static Fragment union(Fragment f1, Fragment f2) {
+		int start = Math.min(f1.startIndex(), f2.startIndex());
+		int end = Math.max(f1.endIndex(), f2.endIndex());
+		char[] pattern = new char[end - start + 1];
+		for (int i = start; i <= end; i++) {
+			char c = allele(f1, i);
+			pattern[i - start] = c != '-' ? c : allele(f2, i);
+		}
+		return new Fragment(start, new String(pattern));
+	}
+
+	private static char allele(Fragment f, int snp) {
+		if (snp < f.startIndex() || snp > f.endIndex()) {
+			return '-';
+		}
+		char c = f.toString().charAt(snp - f.startIndex());
+		return c == '0' || c == '1' ? c : '-';
+	}
+
+	/**
+	 * This method hands over the SNP sites of the pending haplotypes before
+	 * the given SNP site, in order of their starting index, and keeps the
+	 * rest of every haplotype as its tail.
+	 */
+	private void release(int snp, BiConsumer<Integer, Fragment> haplotypes) {
+		List<Fragment> remaining = new ArrayList<Fragment>();
+		List<Integer> remainingNumbers = new ArrayList<Integer>();
+		List<Fragment> released = new ArrayList<Fragment>();
+		List<Integer> releasedNumbers = new ArrayList<Integer>();
+		for (int i = 0; i < this.pending.size(); i++) {
+			Fragment f = this.pending.get(i);
+			Fragment head = f.startIndex() < snp ? trim(f, f.startIndex(), Math.min(f.endIndex(), snp - 1)) : null;
+			Fragment tail = f.endIndex() >= snp ? trim(f, Math.max(f.startIndex(), snp), f.endIndex()) : null;
+			if (head != null) {
+				released.add(head);
+				releasedNumbers.add(this.numbers.get(i));
+			}
+			if (tail != null) {
+				remaining.add(tail);
+				remainingNumbers.add(this.numbers.get(i));
+			}
+		}
+		Integer[] order = new Integer[released.size()];
+		for (int i = 0; i < order.length; i++) {
+			order[i] = i;
+		}
+		// Sorting is stable, so ties keep the order of the pending haplotypes
+		Arrays.sort(order, (i, j) -> Fragment.compareFragments(released.get(i), released.get(j)));
+		for (int i : order) {
+			haplotypes.accept(releasedNumbers.get(i), released.get(i));
+		}
+		this.pending = remaining;
+		this.numbers = remainingNumbers;
+	}
+
+	/**
+	 * This method cuts the given SNP sites out of a haplotype, without the
+	 * SNP sites next to a cut that have no allele.
+	 *
+	 * @return The cut haplotype, or null if it has no allele at those sites.
+	 */
+	private static Fragment trim(Fragment f, int start, int end) {
+		while (start > f.startIndex() && start <= end && allele(f, start) == '-') {
+			start++;
+		}
+		while (end < f.endIndex() && end >= start && allele(f, end) == '-') {
+			end--;
+		}
+		if (start > end) {
+			return null;
+		}
+		if (start == f.startIndex() && end == f.endIndex()) {
+			return f;
+		}
+		return new Fragment(start, f.toString().substring(start - f.startIndex(), end - f.startIndex() + 1));
+	}
+
+}
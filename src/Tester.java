@@ -1,8 +1,8 @@
-import java.io.BufferedReader;
 import java.io.FileNotFoundException;
-import java.io.FileReader;
 import java.io.IOException;
-import java.util.HashSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 /**
  * This class allows the user to phase k-ploid haplotypes.
@@ -12,7 +12,7 @@ import java.util.HashSet;
 public class Tester {
 
 	// The user-supplied sequences in short format to process.
-	private static HashSet<Fragment> fragments;
+	private static FragmentStore fragments;
 
 	public static void main(String[] args) {
 		try {
@@ -25,19 +25,49 @@ public class Tester {
 			int fragmentLength = Integer.parseInt(args[5]);
 			boolean prettyPrint = Boolean.parseBoolean(args[6]);
 			boolean inclusiveSeeding = Boolean.parseBoolean(args[7]);
+			// Extract optional flags; windows are handled here rather than by the Solver
+			List<String> options = new ArrayList<String>();
+			int windowWidth = 0;
+			int windowOverlap = -1;
+			for (String option : Arrays.copyOfRange(args, 8, args.length)) {
+				String[] parts = option.split("=", 2);
+				if (parts[0].equals("--window")) {
+					windowWidth = Integer.parseInt(parts[1]);
+				} else if (parts[0].equals("--window-overlap")) {
+					windowOverlap = Integer.parseInt(parts[1]);
+				} else {
+					options.add(option);
+				}
+			}
+			String[] solverOptions = options.toArray(new String[options.size()]);
 			// Run phaser
+			if (windowWidth > 0) {
+				// Every window has a Solver of its own, which would share the checkpoint
+				for (String option : solverOptions) {
+					if (isCheckpointOption(option)) {
+						throw new IllegalArgumentException(String.format("%s cannot be combined with --window.",
+								option.split("=", 2)[0]));
+					}
+				}
+				ProcessShortFragMatrixStreaming(filename, windowWidth, windowOverlap < 0 ? windowWidth / 4 : windowOverlap,
+						k, alpha, beta, seedLength, fragmentLength, prettyPrint, inclusiveSeeding, solverOptions);
+				return;
+			}
 			System.err.println("Reading data");
 			ReadNewSequencesFromFile(filename);
-			ProcessShortFragMatrixSerial(k, alpha, beta, seedLength, fragmentLength, prettyPrint, inclusiveSeeding);
+			ProcessShortFragMatrixSerial(k, alpha, beta, seedLength, fragmentLength, prettyPrint, inclusiveSeeding, solverOptions);
 		} catch (Exception e) {
 			System.err.println("Command-line arguments were not entered properly or an uncaught exception occured.");
 			e.printStackTrace(System.err);
+			// Let callers such as ScalingBenchmark tell that the run failed
+			System.exit(1);
 		}
 	}
 	
 	private static void ProcessShortFragMatrixSerial(int k, double alpha, int beta, int seedLength, int numFragments, boolean prettyPrint,
-			boolean inclusiveSeeding) {
+			boolean inclusiveSeeding, String[] options) {
 		Solver potatoSolver = new Solver(fragments, k, alpha, beta, seedLength, numFragments, prettyPrint, inclusiveSeeding);
+		ApplyOptions(potatoSolver, options);
 		long startTime = System.nanoTime();
 		potatoSolver.phaseSerial();
 		long endTime = System.nanoTime();
@@ -46,52 +76,95 @@ public class Tester {
 		System.err.printf("Time: %d µs\nTime: %d ms\nTime: %d sec\n\n", duration, duration / 1000, duration / 1000000);
 	}
 	
-	private static void ReadNewSequencesFromFile(String fileName) {
-		try {
-			// Load the raw file into a buffered reader
-			BufferedReader bufferedReader = new BufferedReader(
-					new FileReader(fileName));
-
-			// Initialize the HashSet
-			fragments = new HashSet<Fragment>();
-
-			// Read the fragments from the file
-			String currLine = null;
-			StringBuilder index = new StringBuilder();
-			while ((currLine = bufferedReader.readLine()) != null) {
-				for (int i = 0; i < currLine.length(); i++) {
-					char currChar = currLine.charAt(i);
-					if (currChar == '\t') {
-						// Save constants for efficiency
-						int currIndex = Integer.parseInt(index.toString());
-						String currString = currLine.substring(i + 1);
-						Fragment currFragment = new Fragment(currIndex, currString);
-						if (fragments.contains(currFragment)) {
-							// Find the fragment and increment its frequency
-							for (Fragment f : fragments) {
-								if (f.equals(currFragment)) {
-									f.incrementFrequency();
-									break;
-								}
-							}
-						} else {
-							// fragments DOES NOT contain currFragment, so add
-							// it!
-							fragments.add(currFragment);
-						}
-					} else {
-						index.append(currChar);
-					}
+	private static void ProcessShortFragMatrixStreaming(String fileName, int windowWidth, int windowOverlap, int k,
+			double alpha, int beta, int seedLength, int numFragments, boolean prettyPrint, boolean inclusiveSeeding,
+			String[] options) throws IOException {
+		StreamingPhaser phaser = new StreamingPhaser(windowWidth, windowOverlap, store -> {
+			Solver solver = new Solver(store, k, alpha, beta, seedLength, numFragments, prettyPrint, inclusiveSeeding);
+			ApplyOptions(solver, options);
+			return solver;
+		});
+		long startTime = System.nanoTime();
+		// Every piece is printed as soon as it is final, led by the number of its haplotype
+		phaser.phase(fileName, (number, piece) -> System.out.printf("%d\t%s\n", number,
+				prettyPrint ? piece.prettyPrint() : piece.print()));
+		long endTime = System.nanoTime();
+		// Calculate the duration in microseconds
+		long duration = (endTime - startTime) / 1000;
+		System.err.printf("Time: %d µs\nTime: %d ms\nTime: %d sec\n\n", duration, duration / 1000, duration / 1000000);
+	}
+	
+	private static boolean isCheckpointOption(String option) {
+		String name = option.split("=", 2)[0];
+		return name.equals("--checkpoint") || name.equals("--checkpoint-every") || name.equals("--resume");
+	}
+	
+	static void ApplyOptions(Solver solver, String[] options) {
+		// Phase blocks are not checkpointed, so checkpointing them would silently do nothing
+		if (Arrays.asList(options).contains("--phase-blocks")) {
+			for (String option : options) {
+				if (isCheckpointOption(option)) {
+					throw new IllegalArgumentException(String.format("%s cannot be combined with --phase-blocks.",
+							option.split("=", 2)[0]));
 				}
-				// Clear the StringBuilder
-				index.setLength(0);
 			}
-			// Close the bufferedReader when finished
-			bufferedReader.close();
+		}
+		for (String option : options) {
+			// Options with a value are given as --name=value
+			String[] parts = option.split("=", 2);
+			switch (parts[0]) {
+			case "--parallel-seeding":
+				solver.setParallelSeeding(true);
+				break;
+			case "--parallel-merging":
+				solver.setParallelMerging(true);
+				break;
+			case "--serial-merge-order":
+				solver.setSerialMergeOrder(true);
+				break;
+			case "--lsh-pairing":
+				solver.setApproximatePairing(parts.length > 1 ? Double.parseDouble(parts[1]) : 0.5);
+				break;
+			case "--lsh-recall":
+				solver.setPairingRecall(true);
+				break;
+			case "--phase-blocks":
+				solver.setBlockPhasing(true);
+				break;
+			case "--checkpoint":
+				solver.setCheckpoint(parts[1]);
+				break;
+			case "--checkpoint-every":
+				solver.setCheckpointInterval(Integer.parseInt(parts[1]));
+				break;
+			case "--resume":
+				solver.setResume(parts[1]);
+				break;
+			case "--filter-conflicts":
+				solver.setConflictFiltering(true);
+				break;
+			default:
+				throw new IllegalArgumentException(String.format("Unknown option %s.", option));
+			}
+		}
+	}
+	
+	static FragmentStore ReadFragments(String fileName) throws IOException {
+		if (BinaryFragmentMatrix.isBinary(fileName)) {
+			// Decode the fragments straight from the mapped binary matrix
+			return BinaryFragmentMatrix.open(fileName).store();
+		}
+		// Memory-map the file and parse it in parallel, merging duplicates
+		return FragmentStore.of(FragmentLoader.load(fileName));
+	}
+	
+	private static void ReadNewSequencesFromFile(String fileName) {
+		try {
+			fragments = ReadFragments(fileName);
 		} catch (FileNotFoundException e) {
 			System.err.println(String.format("Unable to open file %s.", fileName));
 		} catch (IOException e) {
-			System.err.println(String.format("Error reading file %s.", fileName));
+			System.err.println(String.format("Error reading file %s: %s", fileName, e.getMessage()));
 		}
 	}
 
@@ -0,0 +1,160 @@
+/**
+ * This class scores the supporting fragments of a seed group against the
+ * consensuses of all k of its haplotypes during the twisting step. The
+ * consensuses are packed into one flat array of SNP-aligned words, so a
+ * fragment is scored against every haplotype with a popcount per word and
+ * assigned with a single scan over a flat array of scores. Buffers are reused
+ * across calls, so an instance must not be shared between threads.
+ *
+ * @author Georgie Botev
+ */
+public class TwistKernel {
+
+	private FragmentStore store;
+	private int k;
+	private int beta;
+	// Consensus c covers words consensusCoverage[c * numWords .. (c + 1) * numWords)
+	private long[] consensusCoverage = new long[0];
+	private long[] consensusAlleles = new long[0];
+	private int[] scores;
+	// Scored fragments, the haplotype each one came from and the haplotype
+	// each one was assigned to, or -1
+	private int[] frags = new int[0];
+	private int[] origins = new int[0];
+	private int[] assignments = new int[0];
+	private int numFrags;
+
+	public TwistKernel(FragmentStore store, int k, int beta) {
+		this.store = store;
+		this.k = k;
+		this.beta = beta;
+		this.scores = new int[k];
+	}
+
+	/**
+	 * This method scores every supporting fragment of the given haplotypes
+	 * against all of their consensuses. A fragment is assigned to a haplotype
+	 * if that haplotype alone has the highest score and the score is at least
+	 * the length of the fragment minus beta.
+	 *
+	 * @param fas The k haplotypes of the seed group.
+	 * @return The number of distinct supporting fragments scored.
+	 */
+	public int score(FrequencyArray[] fas) {
+		// Determine the words spanned by the seed group
+		int firstWord = Integer.MAX_VALUE;
+		int lastWord = -1;
+		int size = 0;
+		for (FrequencyArray fa : fas) {
+			if (fa.numSupportingFrags() > 0) {
+				firstWord = Math.min(firstWord, fa.activeStart() >>> 6);
+				lastWord = Math.max(lastWord, fa.activeEnd() >>> 6);
+				size += fa.numSupportingFrags();
+			}
+		}
+		this.numFrags = 0;
+		if (lastWord < 0) {
+			return 0;
+		}
+		int numWords = lastWord - firstWord + 1;
+		if (this.consensusCoverage.length < this.k * numWords) {
+			this.consensusCoverage = new long[this.k * numWords];
+			this.consensusAlleles = new long[this.k * numWords];
+		}
+		if (this.frags.length < size) {
+			this.frags = new int[size];
+			this.origins = new int[size];
+			this.assignments = new int[size];
+		}
+		// Pack every consensus and collect the distinct supporting fragments
+		for (int c = 0; c < this.k; c++) {
+			fas[c].consensusWords(this.consensusCoverage, this.consensusAlleles, c * numWords, firstWord, numWords);
+			int from = this.numFrags;
+			this.numFrags += fas[c].getFrags().copyTo(this.frags, from);
+			for (int i = from; i < this.numFrags; i++) {
+				if (this.isCollected(fas, c, this.frags[i])) {
+					this.frags[i--] = this.frags[--this.numFrags];
+				} else {
+					this.origins[i] = c;
+				}
+			}
+		}
+		long[] coverage = this.store.coverageWords();
+		long[] alleles = this.store.alleleWords();
+		for (int i = 0; i < this.numFrags; i++) {
+			int f = this.frags[i];
+			int offset = this.store.wordOffset(f);
+			int fragWords = this.store.numWords(f);
+			int base = (this.store.startIndex(f) >>> 6) - firstWord;
+			// Score against every consensus
+			for (int c = 0; c < this.k; c++) {
+				int score = 0;
+				int consensus = c * numWords + base;
+				for (int w = 0; w < fragWords; w++) {
+					score += Long.bitCount(~(alleles[offset + w] ^ this.consensusAlleles[consensus + w])
+							& coverage[offset + w] & this.consensusCoverage[consensus + w]);
+				}
+				this.scores[c] = score;
+			}
+			// Find the maximum score and whether it is unique
+			int best = -1;
+			int bestScore = -1;
+			int numBest = 0;
+			for (int c = 0; c < this.k; c++) {
+				int score = this.scores[c];
+				if (score > bestScore) {
+					bestScore = score;
+					best = c;
+					numBest = 1;
+				} else if (score == bestScore) {
+					numBest++;
+				}
+			}
+			// The membership of this fragment is unambiguous if it matches
+			// exactly one consensus with at most beta errors
+			this.assignments[i] = numBest == 1 && bestScore >= this.store.length(f) - this.beta ? best : -1;
+		}
+		return this.numFrags;
+	}
+
+	private boolean isCollected(FrequencyArray[] fas, int c, int f) {
+		for (int i = 0; i < c; i++) {
+			if (fas[i].getFrags().contains(f)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * This method gets the ID of the i-th scored fragment.
+	 *
+	 * @param i The position of the fragment among the scored fragments.
+	 * @return The ID of the fragment.
+	 */
+	public int fragment(int i) {
+		return this.frags[i];
+	}
+
+	/**
+	 * This method gets the first haplotype that the i-th scored fragment was
+	 * collected from.
+	 *
+	 * @param i The position of the fragment among the scored fragments.
+	 * @return The index of the haplotype.
+	 */
+	public int origin(int i) {
+		return this.origins[i];
+	}
+
+	/**
+	 * This method gets the haplotype the i-th scored fragment was assigned to.
+	 *
+	 * @param i The position of the fragment among the scored fragments.
+	 * @return The index of the haplotype, or -1 if the fragment is ambiguous.
+	 */
+	public int assignment(int i) {
+		return this.assignments[i];
+	}
+
+}